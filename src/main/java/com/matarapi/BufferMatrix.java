@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Off-heap Matrix.
+ * <pre>
+ * The elements are stored in a direct FloatBuffer in row-major order,
+ * so big matrices don't press the java heap and GC.
+ *
+ * data       buffer
+ * |a b c| => |a b c d e f|
+ * |d e f|
+ *
+ * A direct buffer can hold up to Integer.MAX_VALUE bytes,
+ * that is (Integer.MAX_VALUE / 4) elements.
+ *
+ * Only the matrix itself is off-heap. The workspace of MatKernel is
+ * a heap float[], because Aparapi transfers only java arrays to the
+ * device. new MatKernel(...) copies a BufferMatrix into it once
+ * with a bulk get, and MatKernel.getMat(no, FloatBuffer) copies back.
+ * </pre>
+ * @author a.ho
+ */
+public class BufferMatrix implements IMatrix {
+
+    /**
+     * data buffer (row-major).
+     */
+    private final FloatBuffer buf;
+    /**
+     * row size.
+     */
+    private final int row;
+    /**
+     * col size.
+     */
+    private final int col;
+
+    public BufferMatrix(final int rowcol) {
+        this(rowcol, rowcol);
+    }
+
+    public BufferMatrix(final int row, final int col) {
+        this(allocate(row, col), row, col);
+    }
+
+    /**
+     * Constructor.
+     * <pre>
+     * The buffer is not copied.
+     * The matrix occupies row * col elements from the current position of buf.
+     * </pre>
+     * @param buf data buffer
+     * @param row row size
+     * @param col col size
+     */
+    public BufferMatrix(final FloatBuffer buf, final int row, final int col) {
+        if (buf.remaining() < (long) row * col) {
+            throw new IllegalArgumentException("buffer is too small.");
+        }
+        FloatBuffer dup = buf.duplicate();
+        dup.limit(dup.position() + row * col);
+        this.buf = dup.slice();
+        this.row = row;
+        this.col = col;
+    }
+
+    @Override
+    public int getColSize() {
+        return col;
+    }
+
+    @Override
+    public int getRowSize() {
+        return row;
+    }
+
+    @Override
+    public int getSize() {
+        return row * col;
+    }
+
+    /**
+     * get data buffer.
+     * <pre>
+     * The buffer is not copied. Modifications are reflected to this matrix.
+     * The matrix always starts at index 0 of the buffer
+     * regardless of its position.
+     * </pre>
+     * @return data buffer (row-major)
+     */
+    public FloatBuffer getBuffer() {
+        return buf;
+    }
+
+    public void setVal(final int row, final int col, final float val) {
+        buf.put(row * this.col + col, val);
+    }
+
+    @Override
+    public float getVal(final int row, final int col) {
+        return buf.get(row * this.col + col);
+    }
+
+    /**
+     * get data as jagged array.
+     * <pre>
+     * The returned array is a copy of this matrix.
+     * </pre>
+     * @return copy of data
+     */
+    @Override
+    public float[][] getData() {
+        float[][] data = new float[row][col];
+        FloatBuffer src = buf.duplicate();
+        src.rewind();
+        for (float[] vec : data) {
+            src.get(vec);
+        }
+        return data;
+    }
+
+    /**
+     * copy containts data to ary.
+     * @param ary data array
+     * @param p write pointer
+     * @return next pointer
+     */
+    @Override
+    public int accept(float[] ary, int p) {
+        FloatBuffer src = buf.duplicate();
+        src.rewind();
+        src.get(ary, p, getSize());
+        return p + getSize();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        for (int r = 0; r < row; r++) {
+            for (int c = 0; c < col; c++) {
+                sb.append(String.format("%.2f ", getVal(r, c)));
+            }
+            sb.append("\n");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * allocate a direct buffer of row * col floats.
+     * <pre>
+     * One direct buffer holds Integer.MAX_VALUE bytes at most.
+     * </pre>
+     */
+    private static FloatBuffer allocate(final int row, final int col) {
+        long bytes = (long) row * col * Float.BYTES;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("matrix is too large for a direct buffer. (" + row + " x " + col + ")");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
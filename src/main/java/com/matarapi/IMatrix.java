@@ -21,8 +21,30 @@ public interface IMatrix {
 
     int getRowSize();
 
+    /**
+     * get size.
+     * <pre>
+     * number of elements which are copied to ary by accept().
+     * This is row * col for dense matrixes.
+     * </pre>
+     * @return size
+     */
     int getSize();
     
     float[][] getData();
+
+    /**
+     * get element.
+     * <pre>
+     * The default reads getData(). Implementations override this
+     * to read the element without copying.
+     * </pre>
+     * @param row row number
+     * @param col col number
+     * @return element value
+     */
+    default float getVal(int row, int col) {
+        return getData()[row][col];
+    }
     
 }
@@ -0,0 +1,504 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import com.aparapi.Range;
+
+/**
+ * Iterative linear solvers resident on the kernel.
+ * <pre>
+ * CG (conjugate gradient) for a symmetric positive-definite A,
+ * BiCGSTAB for a general (non-symmetric) A.
+ *
+ * MatCG cg = new MatCG(a);          // Matrix or SparseMatrix (n x n)
+ * Matrix x = cg.solve(b);           // CG
+ * Matrix y = cg.solveBiCGSTAB(c);   // BiCGSTAB
+ *
+ * All vectors stay in the workspace of one kernel. An iteration is a few
+ * passes of one execution: matrix-vector product (matMul or matSpMV),
+ * dot products (partial sums of work groups on local memory)
+ * and AXPY updates. Every 'check interval' iterations, only the small
+ * scalar array (dot products, residual norm) is read back to the host
+ * for the convergence check. (the kernel runs in explicit mode)
+ *
+ * Each work group writes a partial sum of a dot product,
+ * and the consumers of the dot product add up the partial sums,
+ * so no pass is spent for the final sum.
+ * After convergence, remaining passes of the interval do nothing.
+ *
+ * A zero denominator (p.Ap for CG, r0.v, rho or omega for BiCGSTAB)
+ * is a breakdown. The iteration stops there, x keeps the last update,
+ * and isConverged() is false. A NaN residual is reported the same way.
+ *
+ * Dot products use local memory, so this can't run on the Fork-Join engine.
+ * </pre>
+ * @author a.ho
+ */
+public final class MatCG {
+
+    /**
+     * max number of work groups of dot products.
+     */
+    static final int MAX_GROUPS = 64;
+
+    /**
+     * kernel of iterations.
+     * <pre>
+     * slots : 0 A, 1 x, 2 r, 3 p, 4 q (v), 5 s, 6 t, 7 r0
+     * scal  : |tol^2 rr(2) rho(2) breakdown converged partial sums (5 x MAX_GROUPS)|
+     * </pre>
+     */
+    static class IterKernel extends MatKernel {
+
+        static final int A = 0;
+        static final int X = 1;
+        static final int R = 2;
+        static final int P = 3;
+        static final int Q = 4;
+        static final int S = 5;
+        static final int T = 6;
+        static final int R0 = 7;
+
+        static final int TOL2 = 0;
+        /**
+         * r.r of iteration k at RR + k % 2.
+         */
+        static final int RR = 1;
+        /**
+         * r0.r of iteration k at RHO + k % 2. (BiCGSTAB)
+         */
+        static final int RHO = 3;
+        /**
+         * 0, or 1 + number of iterations done before a breakdown.
+         */
+        static final int BREAKDOWN = 5;
+        /**
+         * 0, or 1 + number of iterations done before the convergence.
+         */
+        static final int CONVERGED = 6;
+        static final int D1 = 7;
+        static final int D2 = D1 + MAX_GROUPS;
+        static final int D3 = D2 + MAX_GROUPS;
+        static final int D4 = D3 + MAX_GROUPS;
+        static final int D5 = D4 + MAX_GROUPS;
+        static final int SCAL_SIZE = D5 + MAX_GROUPS;
+
+        static final int CG_PASSES = 5;
+        static final int BICGSTAB_PASSES = 8;
+
+        /**
+         * scalars. (read back for convergence check)
+         */
+        protected float[] scal = new float[SCAL_SIZE];
+        /**
+         * BiCGSTAB or CG.
+         */
+        protected boolean bicgstab;
+        /**
+         * iteration number of the first pass.
+         */
+        protected int iter0;
+        /**
+         * vector size.
+         */
+        protected int n;
+        /**
+         * number of work groups of dot products.
+         */
+        protected int groups;
+
+        IterKernel(final IMatrix a) {
+            super(a, new MockMatrix(a.getRowSize(), 1), new MockMatrix(a.getRowSize(), 1),
+                    new MockMatrix(a.getRowSize(), 1), new MockMatrix(a.getRowSize(), 1),
+                    new MockMatrix(a.getRowSize(), 1), new MockMatrix(a.getRowSize(), 1),
+                    new MockMatrix(a.getRowSize(), 1));
+            n = a.getRowSize();
+            int local = getTile() * getTile();
+            groups = Math.max(1, Math.min(MAX_GROUPS, (n + local - 1) / local));
+        }
+
+        Range range() {
+            int local = getTile() * getTile();
+            int global = Math.max(n, groups * local);
+            return Range.create((global + local - 1) / local * local, local);
+        }
+
+        @Override
+        public void run() {
+            if (bicgstab) {
+                runBiCGSTAB();
+            } else {
+                runCG();
+            }
+        }
+
+        private void runCG() {
+            int pass = getPassId();
+            int stage = pass % CG_PASSES;
+            int k = iter0 + (pass - stage) / CG_PASSES;
+            int cur = k % 2;
+            float rr = scal[RR + cur];
+            if (stopped()) {
+                if (0 == stage) {
+                    converge(k);
+                }
+                return;
+            }
+
+            if (0 == stage) {
+                // q = A p
+                matVec(P, Q);
+            } else if (1 == stage) {
+                dot(P, Q, D1, P, Q, D1);
+            } else if (2 == stage) {
+                // x = x + alpha p, r = r - alpha q
+                int i = getGlobalId();
+                float pq = sum(D1);
+                if (pq == 0.0f) {
+                    // A is not positive-definite.
+                    breakdown(k);
+                } else if (i < n) {
+                    float alpha = rr / pq;
+                    ary[offset[X] + i] += alpha * ary[offset[P] + i];
+                    ary[offset[R] + i] -= alpha * ary[offset[Q] + i];
+                }
+            } else if (3 == stage) {
+                dot(R, R, D5, R, R, D5);
+            } else {
+                // p = r + beta p
+                int i = getGlobalId();
+                float rrNew = sum(D5);
+                if (i < n) {
+                    float beta = rrNew / rr;
+                    ary[offset[P] + i] = ary[offset[R] + i] + beta * ary[offset[P] + i];
+                }
+                if (i == 0) {
+                    scal[RR + 1 - cur] = rrNew;
+                }
+            }
+        }
+
+        private void runBiCGSTAB() {
+            int pass = getPassId();
+            int stage = pass % BICGSTAB_PASSES;
+            int k = iter0 + (pass - stage) / BICGSTAB_PASSES;
+            int cur = k % 2;
+            float rho = scal[RHO + cur];
+            if (stopped()) {
+                if (0 == stage) {
+                    converge(k);
+                }
+                return;
+            }
+
+            int i = getGlobalId();
+            if (0 == stage) {
+                // v = A p
+                matVec(P, Q);
+            } else if (1 == stage) {
+                dot(R0, Q, D1, R0, Q, D1);
+            } else if (2 == stage) {
+                // s = r - alpha v
+                float rv = sum(D1);
+                if (rv == 0.0f || rho == 0.0f) {
+                    breakdown(k);
+                } else if (i < n) {
+                    float alpha = rho / rv;
+                    ary[offset[S] + i] = ary[offset[R] + i] - alpha * ary[offset[Q] + i];
+                }
+            } else if (3 == stage) {
+                // t = A s
+                matVec(S, T);
+            } else if (4 == stage) {
+                dot(T, S, D2, T, T, D3);
+            } else if (5 == stage) {
+                // x = x + alpha p + omega s, r = s - omega t
+                if (i < n) {
+                    float alpha = rho / sum(D1);
+                    float omega = omega();
+                    ary[offset[X] + i] += alpha * ary[offset[P] + i] + omega * ary[offset[S] + i];
+                    ary[offset[R] + i] = ary[offset[S] + i] - omega * ary[offset[T] + i];
+                }
+            } else if (6 == stage) {
+                dot(R0, R, D4, R, R, D5);
+            } else {
+                // p = r + beta (p - omega v)
+                float rhoNew = sum(D4);
+                float omega = omega();
+                if (i < n && omega != 0.0f) {
+                    float alpha = rho / sum(D1);
+                    float beta = (rhoNew / rho) * (alpha / omega);
+                    ary[offset[P] + i] = ary[offset[R] + i]
+                            + beta * (ary[offset[P] + i] - omega * ary[offset[Q] + i]);
+                }
+                if (i == 0) {
+                    scal[RHO + 1 - cur] = rhoNew;
+                    scal[RR + 1 - cur] = sum(D5);
+                }
+                if (omega == 0.0f) {
+                    // s = 0 (converged by x + alpha p) or stagnation.
+                    breakdown(k + 1);
+                }
+            }
+        }
+
+        /**
+         * omega = t.s / t.t of BiCGSTAB. (0 if t = 0)
+         */
+        private float omega() {
+            float tt = sum(D3);
+            return tt == 0.0f ? 0.0f : sum(D2) / tt;
+        }
+
+        /**
+         * stop the iteration by a zero denominator.
+         * @param k number of iterations done
+         */
+        private void breakdown(int k) {
+            if (getGlobalId() == 0) {
+                scal[BREAKDOWN] = k + 1;
+            }
+        }
+
+        /**
+         * record the convergence. (first iteration after it, no breakdown)
+         * @param k number of iterations done
+         */
+        private void converge(int k) {
+            if (getGlobalId() == 0 && scal[CONVERGED] == 0.0f && scal[BREAKDOWN] == 0.0f) {
+                scal[CONVERGED] = k + 1;
+            }
+        }
+
+        /**
+         * converged or broken down. (same value for all work items)
+         * <pre>
+         * r.r is not written after convergence, so the converged value
+         * stays in one of the two slots. The other one is older
+         * and above the tolerance.
+         * </pre>
+         */
+        private boolean stopped() {
+            return scal[RR] <= scal[TOL2] || scal[RR + 1] <= scal[TOL2] || scal[BREAKDOWN] != 0.0f;
+        }
+
+        /**
+         * out = A in. (dense or sparse A)
+         */
+        private void matVec(int in, int out) {
+            if (idxOffset[A] >= 0) {
+                matSpMV(A, in, out);
+            } else {
+                matMul(A, in, out);
+            }
+        }
+
+        /**
+         * partial sums of two dot products. u1.v1 -> d1, u2.v2 -> d2
+         */
+        private void dot(int u1, int v1, int d1, int u2, int v2, int d2) {
+            int g = getGroupId();
+            int l = getLocalId();
+            int nl = getLocalSize();
+
+            // don't return before barriers. all work items must reach them.
+            float s1 = 0.0f;
+            float s2 = 0.0f;
+            if (g < groups) {
+                for (int i = g * nl + l; i < n; i += groups * nl) {
+                    s1 += ary[offset[u1] + i] * ary[offset[v1] + i];
+                    s2 += ary[offset[u2] + i] * ary[offset[v2] + i];
+                }
+            }
+            tileA[l] = s1;
+            localBarrier();
+            reduceLocal(REDUCE_SUM);
+            if (l == 0 && g < groups) {
+                scal[d1 + g] = tileA[0];
+            }
+            localBarrier();
+            tileA[l] = s2;
+            localBarrier();
+            reduceLocal(REDUCE_SUM);
+            if (l == 0 && g < groups) {
+                scal[d2 + g] = tileA[0];
+            }
+        }
+
+        /**
+         * sum of partial sums.
+         */
+        private float sum(int d) {
+            float s = 0.0f;
+            for (int g = 0; g < groups; g++) {
+                s += scal[d + g];
+            }
+            return s;
+        }
+    }
+
+    private final IterKernel kernel;
+    private final int n;
+    private float tolerance = 1.0e-5f;
+    private int maxIterations;
+    private int checkInterval = 10;
+    private int iterations;
+    private float residual;
+    private boolean converged;
+
+    /**
+     * Constructor.
+     * @param a matrix (n x n, Matrix or SparseMatrix)
+     */
+    public MatCG(final IMatrix a) {
+        if (a.getRowSize() != a.getColSize()) {
+            throw new IllegalArgumentException("square matrix is required.");
+        }
+        this.n = a.getRowSize();
+        this.maxIterations = Math.max(n, 1) * 2;
+        this.kernel = new IterKernel(a);
+        kernel.setExplicit(true);
+    }
+
+    /**
+     * set tolerance.
+     * @param tolerance relative residual |b - A x| / |b|
+     */
+    public void setTolerance(final float tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public void setMaxIterations(final int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * set check interval.
+     * <pre>
+     * The residual is read back to the host every 'interval' iterations.
+     * </pre>
+     * @param interval number of iterations per execution
+     */
+    public void setCheckInterval(final int interval) {
+        this.checkInterval = Math.max(1, interval);
+    }
+
+    /**
+     * number of iterations of the last solve.
+     * @return iterations (max iterations at most)
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * the last solve reached the tolerance or not.
+     * <pre>
+     * false after max iterations, a breakdown (zero denominator)
+     * or a NaN residual.
+     * </pre>
+     * @return true if converged
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+
+    /**
+     * relative residual of the last solve.
+     * @return |r| / |b|
+     */
+    public float getResidual() {
+        return residual;
+    }
+
+    /**
+     * solve A x = b by CG. (A : symmetric positive-definite)
+     * @param b right-hand side (n x 1)
+     * @return x (n x 1)
+     */
+    public Matrix solve(final Matrix b) {
+        return iterate(b, false);
+    }
+
+    /**
+     * solve A x = b by BiCGSTAB.
+     * @param b right-hand side (n x 1)
+     * @return x (n x 1)
+     */
+    public Matrix solveBiCGSTAB(final Matrix b) {
+        return iterate(b, true);
+    }
+
+    /**
+     * get kernel.
+     * @return kernel
+     */
+    public MatKernel getKernel() {
+        return kernel;
+    }
+
+    private Matrix iterate(final Matrix b, final boolean bicgstab) {
+        if (b.getRowSize() != n || b.getColSize() != 1) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        // x = 0, r = p = r0 = b
+        kernel.setMat(IterKernel.X, new Matrix(n, 1));
+        kernel.setMat(IterKernel.R, b);
+        kernel.setMat(IterKernel.P, b);
+        kernel.setMat(IterKernel.R0, b);
+
+        float bb = 0.0f;
+        for (float v : b.getAry()) {
+            bb += v * v;
+        }
+        float[] scal = kernel.scal;
+        scal[IterKernel.TOL2] = tolerance * tolerance * bb;
+        scal[IterKernel.RR] = bb;
+        scal[IterKernel.RR + 1] = bb;
+        scal[IterKernel.RHO] = bb;
+        scal[IterKernel.RHO + 1] = bb;
+        scal[IterKernel.BREAKDOWN] = 0.0f;
+        scal[IterKernel.CONVERGED] = 0.0f;
+        kernel.put(scal);
+        kernel.bicgstab = bicgstab;
+
+        int passes = bicgstab ? IterKernel.BICGSTAB_PASSES : IterKernel.CG_PASSES;
+        Range range = kernel.range();
+        int k = 0;
+        float rr = bb;
+        converged = rr <= scal[IterKernel.TOL2];
+        while (k < maxIterations && !converged) {
+            // the last execution doesn't run past max iterations.
+            int count = Math.min(checkInterval, maxIterations - k);
+            kernel.iter0 = k;
+            kernel.execute(range, passes * count);
+            k += count;
+            kernel.get(scal);
+            // the converged value may be on either side. (see stopped())
+            rr = Math.min(scal[IterKernel.RR], scal[IterKernel.RR + 1]);
+            converged = rr <= scal[IterKernel.TOL2];
+            if (converged) {
+                // not recorded if converged in the last iteration of the execution.
+                int done = (int) scal[IterKernel.CONVERGED] - 1;
+                if (done >= 0) {
+                    k = done;
+                }
+                break;
+            }
+            int broken = (int) scal[IterKernel.BREAKDOWN] - 1;
+            if (broken >= 0) {
+                k = broken;
+                rr = scal[IterKernel.RR + k % 2];
+                break;
+            }
+            rr = scal[IterKernel.RR + k % 2];
+            if (Float.isNaN(rr)) {
+                break;
+            }
+        }
+        iterations = k;
+        residual = bb > 0.0f ? (float) Math.sqrt(rr / bb) : 0.0f;
+        return kernel.getMat(IterKernel.X);
+    }
+}
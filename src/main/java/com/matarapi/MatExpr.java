@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+/**
+ * Matrix expression.
+ * <pre>
+ * Operations on MatExpr are not calculated immediately.
+ * They build a DAG (directed acyclic graph) of expressions,
+ * and MatPlan.compile() compiles it to a reusable execution plan.
+ *
+ * MatExpr x = MatExpr.input(4, 3);
+ * MatExpr w = MatExpr.input(3, 2);
+ * MatExpr b = MatExpr.input(4, 2);
+ * MatExpr y = x.mul(w).add(b).reLu();
+ *
+ * MatPlan plan = MatPlan.compile(y);
+ * plan.set(x, mx).set(w, mw).set(b, mb).run();
+ * Matrix out = plan.get(y);
+ * </pre>
+ * @author a.ho
+ */
+public final class MatExpr {
+
+    /**
+     * operation.
+     */
+    enum Op {
+        INPUT, MUL, ADD, SUB, HMUL, RELU, DRELU, TRANSPOSE;
+
+        /**
+         * elementwise or not.
+         * @return true if out[i] depends only on in[i]
+         */
+        boolean isElementwise() {
+            return ADD == this || SUB == this || HMUL == this || RELU == this || DRELU == this;
+        }
+    }
+
+    final Op op;
+    final MatExpr a;
+    final MatExpr b;
+    private final int row;
+    private final int col;
+
+    private MatExpr(final Op op, final MatExpr a, final MatExpr b, final int row, final int col) {
+        this.op = op;
+        this.a = a;
+        this.b = b;
+        this.row = row;
+        this.col = col;
+    }
+
+    /**
+     * input matrix.
+     * <pre>
+     * The value is set by MatPlan.set() before MatPlan.run().
+     * </pre>
+     * @param row row size
+     * @param col col size
+     * @return expression
+     */
+    public static MatExpr input(final int row, final int col) {
+        return new MatExpr(Op.INPUT, null, null, row, col);
+    }
+
+    public int getRowSize() {
+        return row;
+    }
+
+    public int getColSize() {
+        return col;
+    }
+
+    /**
+     * multiple.
+     * @param o right operand
+     * @return this X o
+     */
+    public MatExpr mul(final MatExpr o) {
+        if (col != o.row) {
+            throw new IllegalArgumentException("col size of left must be row size of right.");
+        }
+        return new MatExpr(Op.MUL, this, o, row, o.col);
+    }
+
+    /**
+     * add.
+     * @param o right operand
+     * @return this + o
+     */
+    public MatExpr add(final MatExpr o) {
+        return elementwise(Op.ADD, o);
+    }
+
+    /**
+     * sub.
+     * @param o right operand
+     * @return this - o
+     */
+    public MatExpr sub(final MatExpr o) {
+        return elementwise(Op.SUB, o);
+    }
+
+    /**
+     * hadamard product.
+     * @param o right operand
+     * @return this O o
+     */
+    public MatExpr hmul(final MatExpr o) {
+        return elementwise(Op.HMUL, o);
+    }
+
+    /**
+     * ReLU.
+     * @return ReLu(this)
+     */
+    public MatExpr reLu() {
+        return new MatExpr(Op.RELU, this, null, row, col);
+    }
+
+    /**
+     * differentiate of ReLU.
+     * @return ReLu-1(this)
+     */
+    public MatExpr dReLu() {
+        return new MatExpr(Op.DRELU, this, null, row, col);
+    }
+
+    /**
+     * transpose.
+     * @return transposed matrix
+     */
+    public MatExpr transpose() {
+        return new MatExpr(Op.TRANSPOSE, this, null, col, row);
+    }
+
+    private MatExpr elementwise(final Op op, final MatExpr o) {
+        if (row != o.row || col != o.col) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        return new MatExpr(op, this, o, row, col);
+    }
+
+    @Override
+    public String toString() {
+        return op + "(" + row + "x" + col + ")";
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache of factorizations.
+ * <pre>
+ * LU (Matrix.toLU()) and Cholesky (Matrix.toCholesky()) of a matrix are
+ * calculated once and reused for following solves.
+ *
+ * MatFactorCache cache = new MatFactorCache(64L << 20); // 64MB
+ * for (...) {
+ *     Matrix x = cache.solve(a, b);   // a is factorized only at the first call
+ * }
+ *
+ * - The key is the identity of the matrix (not equals()),
+ *   and the source matrix is not changed.
+ * - The source matrix is referred weakly. When it is garbage collected,
+ *   its entries are removed at the next access of the cache.
+ * - Each entry keeps Matrix.getVersion() of the source.
+ *   Any modification through setVal() etc. invalidates the entry.
+ *   (after writing getAry() directly, call Matrix.markDirty())
+ * - The total size of cached factors is bounded,
+ *   and the least recently used entries are evicted.
+ *
+ * Cached factors are shared. Don't modify them.
+ * </pre>
+ * @author a.ho
+ */
+public final class MatFactorCache {
+
+    /**
+     * LU decomposition.
+     */
+    public static final class LU {
+
+        private final Matrix lu;
+        private final int[] order;
+
+        LU(final Matrix lu, final int[] order) {
+            this.lu = lu;
+            this.order = order;
+        }
+
+        /**
+         * packed LU. (see Matrix.toLU())
+         * @return LU
+         */
+        public Matrix getLU() {
+            return lu;
+        }
+
+        /**
+         * sort order by pivotting.
+         * @return order
+         */
+        public int[] getOrder() {
+            return order;
+        }
+    }
+
+    /**
+     * kind of factorization.
+     */
+    private enum Kind {
+        LU, CHOLESKY
+    }
+
+    /**
+     * identity key. (weak reference to the source matrix)
+     */
+    private static final class Key extends WeakReference<Matrix> {
+
+        private final Kind kind;
+        private final int hash;
+
+        Key(final Matrix matrix, final Kind kind, final ReferenceQueue<Matrix> queue) {
+            super(matrix, queue);
+            this.kind = kind;
+            this.hash = System.identityHashCode(matrix) * 31 + kind.ordinal();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key o = (Key) obj;
+            Matrix m = get();
+            // a collected key is equal only to itself.
+            return null != m && m == o.get() && kind == o.kind;
+        }
+    }
+
+    /**
+     * cache entry.
+     */
+    private static final class Entry {
+
+        private final int version;
+        private final Object factor;
+        private final long bytes;
+
+        Entry(final int version, final Object factor, final long bytes) {
+            this.version = version;
+            this.factor = factor;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long maxBytes;
+    /**
+     * entries in access order. (LRU first)
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    /**
+     * keys of collected source matrixes.
+     */
+    private final ReferenceQueue<Matrix> collected = new ReferenceQueue<>();
+
+    /**
+     * Constructor.
+     * @param maxBytes max total size of cached factors
+     */
+    public MatFactorCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * get LU decomposition.
+     * @param a square matrix (not changed)
+     * @return LU (cached)
+     * @throws ExecutionException see Matrix.toLU()
+     */
+    public LU lu(final Matrix a) throws ExecutionException {
+        Key key = new Key(a, Kind.LU, collected);
+        int version = a.getVersion();
+        Object cached = lookup(key, version);
+        if (null != cached) {
+            return (LU) cached;
+        }
+        Matrix m = a.copyAll();
+        int[] order = m.toLU();
+        LU lu = new LU(m, order);
+        store(key, new Entry(version, lu, 4L * m.getSize() + 4L * order.length));
+        return lu;
+    }
+
+    /**
+     * get Cholesky decomposition.
+     * @param a symmetric positive-definite matrix (not changed)
+     * @return L in the lower triangle (cached)
+     */
+    public Matrix cholesky(final Matrix a) {
+        Key key = new Key(a, Kind.CHOLESKY, collected);
+        int version = a.getVersion();
+        Object cached = lookup(key, version);
+        if (null != cached) {
+            return (Matrix) cached;
+        }
+        Matrix l = a.copyAll().toCholesky();
+        store(key, new Entry(version, l, 4L * l.getSize()));
+        return l;
+    }
+
+    /**
+     * solve A X = B with cached LU of A.
+     * @param a square matrix (not changed)
+     * @param b right-hand sides
+     * @return X
+     * @throws ExecutionException see Matrix.toLU()
+     */
+    public Matrix solve(final Matrix a, final Matrix b) throws ExecutionException {
+        LU lu = lu(a);
+        return MatSolver.solveLU(lu.getLU(), lu.getOrder(), b);
+    }
+
+    /**
+     * solve A X = B with cached Cholesky decomposition of A.
+     * @param a symmetric positive-definite matrix (not changed)
+     * @param b right-hand sides
+     * @return X
+     */
+    public Matrix solveSPD(final Matrix a, final Matrix b) {
+        return MatSolver.solveCholesky(cholesky(a), b);
+    }
+
+    /**
+     * remove all factorizations of a.
+     * @param a matrix
+     */
+    public synchronized void invalidate(final Matrix a) {
+        for (Kind kind : Kind.values()) {
+            Entry e = entries.remove(new Key(a, kind, null));
+            if (null != e) {
+                bytes -= e.bytes;
+            }
+        }
+    }
+
+    /**
+     * remove all.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * number of cached factorizations.
+     * @return size
+     */
+    public synchronized int size() {
+        expunge();
+        return entries.size();
+    }
+
+    /**
+     * total size of cached factors.
+     * @return bytes
+     */
+    public synchronized long getBytes() {
+        expunge();
+        return bytes;
+    }
+
+    private synchronized Object lookup(final Key key, final int version) {
+        expunge();
+        Entry e = entries.get(key);
+        if (null == e) {
+            return null;
+        }
+        if (e.version != version) {
+            // the matrix is modified.
+            entries.remove(key);
+            bytes -= e.bytes;
+            return null;
+        }
+        return e.factor;
+    }
+
+    private synchronized void store(final Key key, final Entry entry) {
+        expunge();
+        if (entry.bytes > maxBytes) {
+            // never fits.
+            return;
+        }
+        Entry old = entries.put(key, entry);
+        if (null != old) {
+            bytes -= old.bytes;
+        }
+        bytes += entry.bytes;
+
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<Key, Entry> lru = it.next();
+            if (lru.getKey().equals(key)) {
+                continue;
+            }
+            bytes -= lru.getValue().bytes;
+            it.remove();
+        }
+    }
+
+    /**
+     * enqueue the keys of a as if a was garbage collected. (for tests)
+     * <pre>
+     * The entries are removed at the next access, as after a real GC.
+     * </pre>
+     * @param a source matrix
+     */
+    synchronized void enqueue(final Matrix a) {
+        for (Key key : entries.keySet()) {
+            if (key.get() == a) {
+                key.enqueue();
+            }
+        }
+    }
+
+    /**
+     * remove entries of collected source matrixes.
+     */
+    private void expunge() {
+        for (Object ref = collected.poll(); null != ref; ref = collected.poll()) {
+            Entry e = entries.remove(ref);
+            if (null != e) {
+                bytes -= e.bytes;
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import com.aparapi.Kernel;
+import com.aparapi.Range;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-Join execution engine for kernels.
+ * <pre>
+ * This engine runs Kernel.run() on the host without OpenCL.
+ * The global range is split recursively into chunks on a shared ForkJoinPool,
+ * and each chunk runs run() for its global ids on a clone of the kernel.
+ * (Aparapi JTP mode makes one thread per work item in a group instead.)
+ *
+ * The data arrays are shared by all clones, so results are written
+ * directly to the original kernel.
+ *
+ * Kernels which use local memory and localBarrier() (matMulTiled etc.)
+ * can't run on this engine, because work items of a group are not
+ * executed at the same time.
+ * </pre>
+ * @author a.ho
+ */
+public final class MatForkJoin {
+
+    /**
+     * shared pool.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * number of chunks per thread.
+     * (more chunks than threads for load balancing)
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private MatForkJoin() {
+    }
+
+    /**
+     * get shared pool.
+     * @return ForkJoinPool
+     */
+    public static ForkJoinPool getPool() {
+        return POOL;
+    }
+
+    /**
+     * grain size of range splitting.
+     * @param size total size
+     * @return chunk size
+     */
+    public static int grain(final int size) {
+        return Math.max(1, size / (POOL.getParallelism() * CHUNKS_PER_THREAD));
+    }
+
+    /**
+     * body of a range loop.
+     */
+    public interface RangeBody {
+
+        /**
+         * process [from, to).
+         * @param from first index (inclusive)
+         * @param to last index (exclusive)
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * parallel range loop.
+     * <pre>
+     * [0, size) is split recursively into chunks of grain(size) or less,
+     * and body.run(from, to) is called for each chunk on the shared pool.
+     * </pre>
+     * @param size size
+     * @param body loop body
+     */
+    public static void forRange(final int size, final RangeBody body) {
+        forRange(size, grain(size), body);
+    }
+
+    /**
+     * parallel range loop.
+     * @param size size
+     * @param grain max chunk size
+     * @param body loop body
+     */
+    public static void forRange(final int size, final int grain, final RangeBody body) {
+        if (size <= grain) {
+            body.run(0, size);
+            return;
+        }
+        POOL.invoke(new RangeChunk(body, 0, size, Math.max(1, grain)));
+    }
+
+    /**
+     * execute kernel.
+     * <pre>
+     * Passes are executed one by one. The next pass starts
+     * after all global ids of the previous pass are finished.
+     * </pre>
+     * @param kernel kernel
+     * @param range execution range
+     * @param passes number of passes
+     */
+    public static void execute(final Kernel kernel, final Range range, final int passes) {
+        int size = range.getGlobalSize(0) * range.getGlobalSize(1) * range.getGlobalSize(2);
+        int grain = grain(size);
+        for (int pass = 0; pass < passes; pass++) {
+            POOL.invoke(new Chunk(kernel, range, pass, 0, size, grain));
+        }
+    }
+
+    /**
+     * chunk of global ids.
+     */
+    private static final class Chunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Kernel kernel;
+        private final Range range;
+        private final int pass;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Chunk(final Kernel kernel, final Range range, final int pass, final int from, final int to, final int grain) {
+            this.kernel = kernel;
+            this.range = range;
+            this.pass = pass;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                runChunk();
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Chunk(kernel, range, pass, from, mid, grain),
+                    new Chunk(kernel, range, pass, mid, to, grain));
+        }
+
+        private void runChunk() {
+            Kernel worker = kernel.clone();
+            Kernel.KernelState state = worker.getKernelState();
+            state.setRange(range);
+            state.setPassId(pass);
+
+            int size0 = range.getGlobalSize(0);
+            int size1 = range.getGlobalSize(1);
+            for (int id = from; id < to; id++) {
+                int g0 = id % size0;
+                int g1 = (id / size0) % size1;
+                int g2 = id / size0 / size1;
+                setId(state, 0, g0);
+                setId(state, 1, g1);
+                setId(state, 2, g2);
+                worker.run();
+            }
+        }
+
+        private void setId(final Kernel.KernelState state, final int dim, final int id) {
+            int local = range.getLocalSize(dim);
+            state.setGlobalId(dim, id);
+            state.setLocalId(dim, id % local);
+            state.setGroupId(dim, id / local);
+        }
+    }
+
+    /**
+     * chunk of range loop.
+     */
+    private static final class RangeChunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RangeBody body;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        RangeChunk(final RangeBody body, final int from, final int to, final int grain) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeChunk(body, from, mid, grain),
+                    new RangeChunk(body, mid, to, grain));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fused elementwise operations.
+ * <pre>
+ * A chain of elementwise operations is calculated in one pass,
+ * without writing intermediate matrixes to work areas.
+ *
+ * ex. out = ReLu(in1 X in2 + bias)
+ *
+ * MatKernel kernel = new MatKernel(in1, in2, bias, out) {
+ *     final int layer = fuse(MatFusion.mul(0, 1).add(2).reLu().into(3));
+ *
+ *     public void run() {
+ *         matFused(layer);
+ *     }
+ * };
+ * kernel.execute(out.getSize());
+ *
+ * The head of chain is load(in) or mul(in1, in2).
+ * mul(in1, in2) is the GEMM epilogue, the chain is applied
+ * to each element of the product before it is written.
+ *
+ * compiled code (see MatKernel.matFused):
+ * |out head headA headB n op0 arg0 op1 arg1 ...|
+ * </pre>
+ * @author a.ho
+ */
+public final class MatFusion {
+
+    /**
+     * head : acc = in[i].
+     */
+    static final int LOAD = 0;
+    /**
+     * head : acc = (in1 X in2)[i].
+     */
+    static final int MUL = 1;
+    /**
+     * step : acc = acc + in[i].
+     */
+    static final int ADD = 2;
+    /**
+     * step : acc = acc - in[i].
+     */
+    static final int SUB = 3;
+    /**
+     * step : acc = acc * in[i].
+     */
+    static final int HMUL = 4;
+    /**
+     * step : acc = ReLu(acc).
+     */
+    static final int RELU = 5;
+    /**
+     * step : acc = ReLu-1(acc).
+     */
+    static final int DRELU = 6;
+
+    /**
+     * size of code header.
+     */
+    static final int HEADER = 5;
+
+    private final int head;
+    private final int headA;
+    private final int headB;
+    private final List<int[]> steps = new ArrayList<>();
+    private int out = -1;
+
+    private MatFusion(final int head, final int headA, final int headB) {
+        this.head = head;
+        this.headA = headA;
+        this.headB = headB;
+    }
+
+    /**
+     * start chain with a matrix.
+     * @param in input
+     * @return chain
+     */
+    public static MatFusion load(final int in) {
+        return new MatFusion(LOAD, in, in);
+    }
+
+    /**
+     * start chain with a product. (GEMM epilogue)
+     * @param in1 input1
+     * @param in2 input2
+     * @return chain
+     */
+    public static MatFusion mul(final int in1, final int in2) {
+        return new MatFusion(MUL, in1, in2);
+    }
+
+    public MatFusion add(final int in) {
+        return step(ADD, in);
+    }
+
+    public MatFusion sub(final int in) {
+        return step(SUB, in);
+    }
+
+    public MatFusion hmul(final int in) {
+        return step(HMUL, in);
+    }
+
+    public MatFusion reLu() {
+        return step(RELU, -1);
+    }
+
+    public MatFusion dReLu() {
+        return step(DRELU, -1);
+    }
+
+    /**
+     * set output matrix.
+     * <pre>
+     * out can be one of the chain arguments,
+     * but must not be an input of mul(in1, in2).
+     * </pre>
+     * @param out output
+     * @return chain
+     */
+    public MatFusion into(final int out) {
+        this.out = out;
+        return this;
+    }
+
+    private MatFusion step(final int op, final int in) {
+        steps.add(new int[]{op, in});
+        return this;
+    }
+
+    /**
+     * compile to code.
+     * @return code
+     */
+    int[] compile() {
+        if (out < 0) {
+            throw new IllegalStateException("output matrix is not set. call into(out).");
+        }
+        int[] code = new int[HEADER + steps.size() * 2];
+        code[0] = out;
+        code[1] = head;
+        code[2] = headA;
+        code[3] = headB;
+        code[4] = steps.size();
+        int p = HEADER;
+        for (int[] step : steps) {
+            code[p] = step[0];
+            // operations without argument read nothing, but keep it a valid matrix number.
+            code[p + 1] = step[1] < 0 ? out : step[1];
+            p += 2;
+        }
+        return code;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Matrix inverse.
+ * <pre>
+ * All stages run back to back in one execution on one workspace.
+ *  1. PA = LU              (matLU, nb cols per block)
+ *  2. U^-1 and L^-1        (matInvU and matInvL)
+ *  3. A^-1 = U^-1 L^-1 P   (matMulULPiv, pivoting is reverted in the write)
+ *
+ * MatInverse inv = new MatInverse(n);
+ * Matrix ai = inv.inverse(a);
+ *
+ * The kernel is kept, so following calls with the same size only
+ * transfer the new matrix. (see MatKernel.setMat)
+ * On the Fork-Join engine, stage 1 runs on the host (Matrix.toLU()),
+ * because matLU uses local memory.
+ * </pre>
+ * @author a.ho
+ */
+public final class MatInverse {
+
+    /**
+     * block size of LU.
+     */
+    private static final int NB = 16;
+
+    /**
+     * kernel of inverse.
+     * slot 0 : A -> LU, 1 : pivot order, 2 : work (U^-1 \ L^-1), 3 : A^-1
+     */
+    static class InverseKernel extends MatKernel {
+
+        /**
+         * number of passes of LU.
+         */
+        protected final int luPasses;
+        /**
+         * first pass. (skip LU when it is done on the host)
+         */
+        protected int first;
+
+        InverseKernel(final int n) {
+            super(new MockMatrix(n, n), new MockMatrix(1, n), new MockMatrix(n, n), new MockMatrix(n, n));
+            luPasses = passesLU(0, NB);
+        }
+
+        @Override
+        public void run() {
+            int pass = getPassId() + first;
+            if (pass < luPasses) {
+                matLU(0, 1, NB, pass);
+            } else if (pass == luPasses) {
+                matInvU(0, 2);
+                matInvL(0, 2);
+            } else {
+                matMulULPiv(2, 1, 3);
+            }
+        }
+    }
+
+    private final InverseKernel kernel;
+    private final int n;
+
+    /**
+     * Constructor.
+     * @param n size of matrixes (n x n)
+     */
+    public MatInverse(final int n) {
+        this.n = n;
+        this.kernel = new InverseKernel(n);
+        kernel.setExplicit(true);
+    }
+
+    /**
+     * inverse of a matrix.
+     * @param a square matrix (not changed)
+     * @return A^-1
+     */
+    public static Matrix invert(final Matrix a) {
+        return new MatInverse(a.getColSize()).inverse(a);
+    }
+
+    /**
+     * inverse.
+     * @param a square matrix (n x n, not changed)
+     * @return A^-1
+     */
+    public Matrix inverse(final Matrix a) {
+        return inverse(a, new Matrix(n, n));
+    }
+
+    /**
+     * inverse into existing Matrix.
+     * @param a square matrix (n x n, not changed)
+     * @param out output (n x n)
+     * @return out
+     */
+    public Matrix inverse(final Matrix a, final Matrix out) {
+        if (a.getRowSize() != n || a.getColSize() != n) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        int passes = kernel.luPasses + 2;
+        if (kernel.isForkJoin()) {
+            Matrix lu = a.copyAll();
+            int[] o = toLU(lu);
+            Matrix piv = new Matrix(1, n);
+            for (int cnt = 0; cnt < n; cnt++) {
+                piv.setVal(0, cnt, o[cnt]);
+            }
+            kernel.setMat(0, lu);
+            kernel.setMat(1, piv);
+            kernel.first = kernel.luPasses;
+            kernel.execute(kernel.rangeLU(0), 2);
+        } else {
+            kernel.setMat(0, a);
+            kernel.first = 0;
+            kernel.execute(kernel.rangeLU(0), passes);
+        }
+        return kernel.getMatInto(3, out);
+    }
+
+    /**
+     * get kernel.
+     * <pre>
+     * ex. getKernel().setEngine(MatKernel.Engine.AUTO)
+     * </pre>
+     * @return kernel
+     */
+    public MatKernel getKernel() {
+        return kernel;
+    }
+
+    private static int[] toLU(final Matrix lu) {
+        try {
+            return lu.toLU();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
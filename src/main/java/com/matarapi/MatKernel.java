@@ -4,14 +4,68 @@
 package com.matarapi;
 
 import com.aparapi.Kernel;
+import com.aparapi.Range;
+import com.aparapi.device.OpenCLDevice;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 
 /**
  * Matrix calculate Kernel.
  * @author a.ho
  */
 public abstract class MatKernel extends Kernel {
+    /**
+     * execution engine.
+     */
+    public enum Engine {
+        /**
+         * Aparapi (OpenCL, or Aparapi's own fallback).
+         */
+        APARAPI,
+        /**
+         * Fork-Join pool on the host. see MatForkJoin.
+         */
+        FORK_JOIN,
+        /**
+         * FORK_JOIN if OpenCL is not available, else APARAPI.
+         */
+        AUTO
+    }
+
+    /**
+     * default tile size of tiled kernels.
+     */
+    public static final int DEFAULT_TILE = 16;
+    /**
+     * reduction : sum.
+     */
+    public static final int REDUCE_SUM = 0;
+    /**
+     * reduction : max.
+     */
+    public static final int REDUCE_MAX = 1;
+    /**
+     * reduction : min.
+     */
+    public static final int REDUCE_MIN = 2;
+    /**
+     * reduction : index of max (stored as float).
+     */
+    public static final int REDUCE_ARGMAX = 3;
+    /**
+     * reduction : euclidean norm. (Frobenius norm for matReduceAll)
+     */
+    public static final int REDUCE_NORM = 4;
+    /**
+     * initial value of max/min reduction.
+     */
+    private static final float REDUCE_INF = 3.4028235e38f;
     /**
      * data array.
+     * <pre>
+     * Always on the java heap, also for BufferMatrix inputs.
+     * (Aparapi transfers only java arrays)
+     * </pre>
      */
     protected float ary[];
     /**
@@ -19,13 +73,80 @@ public abstract class MatKernel extends Kernel {
      */
     protected int[] offset;
     /**
-     * matrix size.
+     * stored size.
+     * <pre>
+     * number of elements in ary. (see IMatrix.getSize())
+     * row * col for dense matrixes, non-zero size for sparse matrixes.
+     * </pre>
      */
     protected int[] matSize;
+    /**
+     * row size. (logical shape with colSize)
+     */
+    protected int[] rowSize;
     /**
      * col size.
      */
     protected int[] colSize;
+    /**
+     * index array for sparse matrixes (CSR : rowPtr and colIdx).
+     */
+    protected int[] idx;
+    /**
+     * index offset. (-1 : dense matrix)
+     */
+    protected int[] idxOffset;
+    /**
+     * tile size of tiled kernels.
+     */
+    protected int tile;
+    /**
+     * tile of input1 on local memory (tile * tile).
+     */
+    @Local
+    protected float[] tileA;
+    /**
+     * tile of input2 on local memory (tile * tile).
+     */
+    @Local
+    protected float[] tileB;
+    /**
+     * indexes on local memory for argmax (tile * tile).
+     */
+    @Local
+    protected int[] tileIdx;
+    /**
+     * fused programs. see MatFusion.
+     */
+    protected int[] prog = new int[1];
+    /**
+     * used size of prog.
+     */
+    private int progSize = 0;
+    /**
+     * execution engine.
+     */
+    private Engine engine = Engine.APARAPI;
+    /**
+     * arrays are transferred to the device at least once or not. (explicit mode)
+     */
+    private boolean uploaded = false;
+    /**
+     * ary is modified on the host after the last transfer. (explicit mode)
+     */
+    private boolean aryDirty = false;
+    /**
+     * idx is modified on the host after the last transfer. (explicit mode)
+     */
+    private boolean idxDirty = false;
+    /**
+     * prog is modified on the host after the last transfer. (explicit mode)
+     */
+    private boolean progDirty = false;
+    /**
+     * ary on the host is older than the device. (explicit mode)
+     */
+    private boolean stale = false;
 
     /**
      * Constructor.
@@ -33,34 +154,515 @@ public abstract class MatKernel extends Kernel {
      */
     public MatKernel(IMatrix ...data) {
         int arySize = 0;
+        int idxSize = 0;
         for (IMatrix m : data) {
             arySize += m.getSize();
+            if (m instanceof SparseMatrix) {
+                idxSize += ((SparseMatrix) m).getIndexSize();
+            }
         }
         ary = new float[arySize];
+        // OpenCL can't bind an empty buffer.
+        idx = new int[Math.max(idxSize, 1)];
         offset = new int[data.length];
         matSize = new int[data.length];
+        rowSize = new int[data.length];
         colSize = new int[data.length];
+        idxOffset = new int[data.length];
 
         int p = 0;
+        int q = 0;
         int n = 0;
         for (IMatrix m : data) {
 
             offset[n] = p;
-            matSize[n] = m.getRowSize() * m.getColSize();
+            matSize[n] = m.getSize();
+            rowSize[n] = m.getRowSize();
             colSize[n] = m.getColSize();
+            idxOffset[n] = -1;
 
             p = m.accept(ary, p);
+            if (m instanceof SparseMatrix) {
+                idxOffset[n] = q;
+                q = ((SparseMatrix) m).acceptIndex(idx, q);
+            }
             n += 1;
         }
+
+        setTile(DEFAULT_TILE);
+    }
+
+    /**
+     * set tile size of tiled kernels.
+     * <pre>
+     * tile * tile must not exceed the max work group size of the device.
+     * (16 * 16 = 256 works on almost all devices.)
+     * </pre>
+     * @param tile tile size
+     */
+    public final void setTile(final int tile) {
+        this.tile = tile;
+        tileA = new float[tile * tile];
+        tileB = new float[tile * tile];
+        tileIdx = new int[tile * tile];
+    }
+
+    public final int getTile() {
+        return tile;
+    }
+
+    /**
+     * register fused operations.
+     * <pre>
+     * Call this before the first execution, then call matFused(pc) in run().
+     * </pre>
+     * @param fusion fused operations
+     * @return program counter for matFused()
+     */
+    public int fuse(final MatFusion fusion) {
+        int[] code = fusion.compile();
+        int pc = progSize;
+        if (prog.length < pc + code.length) {
+            prog = Arrays.copyOf(prog, Math.max(prog.length * 2, pc + code.length));
+        }
+        System.arraycopy(code, 0, prog, pc, code.length);
+        progSize = pc + code.length;
+        progDirty = true;
+        return pc;
+    }
+
+    /**
+     * set execution engine.
+     * <pre>
+     * APARAPI   : default.
+     * FORK_JOIN : run on the host with the shared ForkJoinPool.
+     * AUTO      : FORK_JOIN when the target device of Aparapi
+     *             is not an OpenCL device. (see Kernel.getTargetDevice())
+     * No engine selects the vectorizable loops of MatSimd. They are
+     * opt-in by calling MatSimd.* directly on the kernel. (MatPlan does
+     * it for products on the FORK_JOIN engine)
+     * </pre>
+     * @param engine execution engine
+     */
+    public void setEngine(final Engine engine) {
+        this.engine = engine;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Fork-Join engine is used or not.
+     * @return true if the next execution runs on MatForkJoin
+     */
+    public boolean isForkJoin() {
+        if (Engine.FORK_JOIN == engine) {
+            return true;
+        }
+        if (Engine.AUTO == engine) {
+            // Java thread pool or sequential device, or no OpenCL device.
+            return !(getTargetDevice() instanceof OpenCLDevice);
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized Kernel execute(final String entry, final Range range, final int passes) {
+        if (isForkJoin()) {
+            download();
+            MatForkJoin.execute(this, range, passes);
+            return this;
+        }
+        if (!isExplicit()) {
+            return super.execute(entry, range, passes);
+        }
+        upload();
+        super.execute(entry, range, passes);
+        stale = true;
+        return this;
+    }
+
+    /**
+     * transfer modified arrays to the device. (explicit mode)
+     * <pre>
+     * All arrays of MatKernel are transferred at the first execution.
+     * After that, only the arrays modified by setMat() or fuse() are
+     * transferred. Arrays declared by subclasses must be put by
+     * themselves.
+     * </pre>
+     */
+    final void upload() {
+        if (!uploaded) {
+            put(offset).put(matSize).put(rowSize).put(colSize).put(idxOffset);
+            aryDirty = true;
+            idxDirty = true;
+            progDirty = true;
+            uploaded = true;
+        }
+        if (aryDirty) {
+            put(ary);
+            aryDirty = false;
+        }
+        if (idxDirty) {
+            put(idx);
+            idxDirty = false;
+        }
+        if (progDirty) {
+            put(prog);
+            progDirty = false;
+        }
+    }
+
+    /**
+     * transfer ary from the device if the host is older. (explicit mode)
+     */
+    final void download() {
+        if (stale) {
+            stale = false;
+            get(ary);
+        }
+    }
+
+    /**
+     * execution range for tiled kernels.
+     * <pre>
+     * 2D range which covers matrix 'out' with tile x tile work groups.
+     * dimension 0 : col, dimension 1 : row.
+     * </pre>
+     * @param out output matrix number
+     * @return range
+     */
+    public Range rangeTiled(final int out) {
+        int c0 = colSize[out];
+        int r0 = matSize[out] / c0;
+        return Range.create2D(roundUp(c0, tile), roundUp(r0, tile), tile, tile);
+    }
+
+    /**
+     * execution range for batched kernels.
+     * <pre>
+     * dimension 0 : element of one output matrix, dimension 1 : batch.
+     * </pre>
+     * @param out output matrix number
+     * @param batch number of matrixes in a batch
+     * @return range
+     */
+    public Range rangeBatched(final int out, final int batch) {
+        return Range.create2D(matSize[out] / batch, batch);
+    }
+
+    /**
+     * execution range for reductions.
+     * <pre>
+     * one work group of (tile * tile) work items per result.
+     * groups : row size of in for matReduceRow,
+     *          col size of in for matReduceCol,
+     *          col size of part for matReduceAll.
+     * </pre>
+     * @param groups number of results
+     * @return range
+     */
+    public Range rangeReduce(final int groups) {
+        int local = tile * tile;
+        return Range.create(groups * local, local);
+    }
+
+    /**
+     * execution range for matLU.
+     * @param a matrix number of LU
+     * @return range
+     */
+    public Range rangeLU(final int a) {
+        int local = tile * tile;
+        return Range.create(roundUp(Math.max(matSize[a], local), local), local);
+    }
+
+    /**
+     * number of passes of matLU.
+     * @param a matrix number of LU
+     * @param nb block size
+     * @return number of passes
+     */
+    public int passesLU(final int a, final int nb) {
+        return 3 * ((colSize[a] + nb - 1) / nb);
+    }
+
+    /**
+     * number of passes of matTrsmL/matTrsmU.
+     * @param in matrix number of the triangular matrix
+     * @param nb block size
+     * @return number of passes
+     */
+    public int passesTrsm(final int in, final int nb) {
+        return 2 * ((colSize[in] + nb - 1) / nb);
+    }
+
+    /**
+     * number of passes of matCholesky.
+     * @param a matrix number
+     * @param nb block size
+     * @return number of passes
+     */
+    public int passesCholesky(final int a, final int nb) {
+        return 3 * ((colSize[a] + nb - 1) / nb);
+    }
+
+    /**
+     * execution range for matQR.
+     * @param a matrix number of QR
+     * @return range
+     */
+    public Range rangeQR(final int a) {
+        int local = tile * tile;
+        return Range.create(roundUp(Math.max(matSize[a], colSize[a] * local), local), local);
+    }
+
+    /**
+     * number of passes of matQR.
+     * @param a matrix number of QR
+     * @return number of passes
+     */
+    public int passesQR(final int a) {
+        int n = colSize[a];
+        return 3 * Math.min(n, matSize[a] / n);
+    }
+
+    private static int roundUp(final int size, final int unit) {
+        return (size + unit - 1) / unit * unit;
     }
 
     /**
      * get Matrix.
+     * <pre>
+     * A sparse matrix is returned as dense matrix.
+     * </pre>
      * @param no matrix number
      * @return Matrix
      */
     public Matrix getMat(final int no) {
-        return new Matrix(ary, offset[no], matSize[no] / colSize[no], colSize[no]);
+        download();
+        if (isSparse(no)) {
+            return getSparseMat(no).toMatrix();
+        }
+        return new Matrix(ary, offset[no], rowSize[no], colSize[no]);
+    }
+
+    /**
+     * get Matrix into existing Matrix.
+     * <pre>
+     * No Matrix is allocated. target is overwritten in bulk.
+     * </pre>
+     * @param no matrix number
+     * @param target output matrix (same size as matrix no)
+     * @return target
+     */
+    public Matrix getMatInto(final int no, final Matrix target) {
+        if (isSparse(no)) {
+            throw new UnsupportedOperationException("Not supported for sparse matrix.");
+        }
+        if (target.getRowSize() * target.getColSize() != matSize[no] || target.getColSize() != colSize[no]) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        download();
+        System.arraycopy(ary, offset[no], target.getAry(), 0, matSize[no]);
+        target.markDirty();
+        return target;
+    }
+
+    /**
+     * get view of Matrix.
+     * <pre>
+     * The view refers the data array of this kernel without copying.
+     * It shows the values after the latest execution.
+     * In explicit mode, call getView() again after each execution,
+     * and call markDirty() after writing the view.
+     * </pre>
+     * @param no matrix number
+     * @return view
+     */
+    public MatrixView getView(final int no) {
+        if (isSparse(no)) {
+            throw new UnsupportedOperationException("Not supported for sparse matrix.");
+        }
+        download();
+        return new MatrixView(ary, offset[no], rowSize[no], colSize[no]);
+    }
+
+    /**
+     * get sparse Matrix.
+     * @param no matrix number
+     * @return SparseMatrix
+     */
+    public SparseMatrix getSparseMat(final int no) {
+        if (!isSparse(no)) {
+            throw new IllegalArgumentException("matrix " + no + " is not sparse.");
+        }
+        download();
+        int row = rowSize[no];
+        int p = idxOffset[no];
+        int[] rowPtr = Arrays.copyOfRange(idx, p, p + row + 1);
+        int nnz = matSize[no];
+        int[] colIdx = Arrays.copyOfRange(idx, p + row + 1, p + row + 1 + nnz);
+        float[] val = Arrays.copyOfRange(ary, offset[no], offset[no] + nnz);
+        return new SparseMatrix(row, colSize[no], rowPtr, colIdx, val);
+    }
+
+    /**
+     * sparse or not.
+     * @param no matrix number
+     * @return true if the matrix is sparse
+     */
+    public boolean isSparse(final int no) {
+        return idxOffset[no] >= 0;
+    }
+
+    /**
+     * get Matrix into off-heap buffer.
+     * <pre>
+     * The matrix is copied in bulk from the current position of dst.
+     * The position of dst is not changed.
+     * </pre>
+     * @param no matrix number
+     * @param dst destination buffer
+     */
+    public void getMat(final int no, final FloatBuffer dst) {
+        if (isSparse(no)) {
+            throw new UnsupportedOperationException("Not supported for sparse matrix.");
+        }
+        download();
+        dst.duplicate().put(ary, offset[no], matSize[no]);
+    }
+
+    /**
+     * get Matrix as off-heap matrix.
+     * @param no matrix number
+     * @return BufferMatrix
+     */
+    public BufferMatrix getBufferMat(final int no) {
+        BufferMatrix m = new BufferMatrix(rowSize[no], colSize[no]);
+        getMat(no, m.getBuffer());
+        return m;
+    }
+
+    /**
+     * set Matrix from off-heap buffer.
+     * <pre>
+     * The matrix is copied in bulk from the current position of src.
+     * The position of src is not changed.
+     * </pre>
+     * @param no matrix number
+     * @param src source buffer
+     */
+    public void setMat(final int no, final FloatBuffer src) {
+        if (isSparse(no)) {
+            throw new UnsupportedOperationException("Not supported for sparse matrix.");
+        }
+        download();
+        src.duplicate().get(ary, offset[no], matSize[no]);
+        aryDirty = true;
+    }
+
+    /**
+     * set Matrix.
+     * <pre>
+     * The matrix is copied into the work area of matrix no.
+     * A long-lived kernel can be executed again with new operands
+     * without packing all matrixes and compiling the kernel again.
+     *
+     * kernel.setExplicit(true);
+     * for (...) {
+     *     kernel.setMat(0, input);
+     *     kernel.execute(range);
+     *     kernel.getMatInto(2, output);
+     * }
+     *
+     * In explicit mode, data array is transferred only when some matrix
+     * is set after the last transfer, and read back only when
+     * the result is read.
+     * A sparse matrix can be replaced by a sparse matrix
+     * with the same number of non-zero elements.
+     * </pre>
+     * @param no matrix number
+     * @param m matrix (same size as matrix no)
+     */
+    public void setMat(final int no, final IMatrix m) {
+        if (m.getRowSize() != rowSize[no] || m.getColSize() != colSize[no]) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        if (isSparse(no) != (m instanceof SparseMatrix)) {
+            throw new IllegalArgumentException("dense and sparse matrix can't be exchanged.");
+        }
+        if (m.getSize() != matSize[no]) {
+            throw new IllegalArgumentException(isSparse(no)
+                    ? "number of non-zero elements mismatch." : "size mismatch.");
+        }
+        download();
+        if (isSparse(no)) {
+            ((SparseMatrix) m).acceptIndex(idx, idxOffset[no]);
+            idxDirty = true;
+        }
+        m.accept(ary, offset[no]);
+        aryDirty = true;
+    }
+
+    /**
+     * mark the data array as modified on the host.
+     * <pre>
+     * Call this after writing the data array directly (ex. through getView()).
+     * Aparapi transfers the data array as a whole, so the dirty state
+     * is kept for the whole array, not for each matrix.
+     * It is transferred at the next execution.
+     * </pre>
+     */
+    public void markDirty() {
+        aryDirty = true;
+    }
+
+    /**
+     * get one Matrix of a batch.
+     * <pre>
+     * A batch is stored as vertically stacked matrixes.
+     * ex. batch = 3, 2 x 2 matrixes
+     * |a b|  <- index 0
+     * |c d|
+     * |A B|  <- index 1
+     * |C D|
+     * |x y|  <- index 2
+     * |z w|
+     * </pre>
+     * @param no matrix number
+     * @param batch number of matrixes in the batch
+     * @param index index in the batch
+     * @return Matrix
+     */
+    public Matrix getBatchMat(final int no, final int batch, final int index) {
+        if (isSparse(no)) {
+            throw new UnsupportedOperationException("Not supported for sparse matrix.");
+        }
+        download();
+        int size = matSize[no] / batch;
+        return new Matrix(ary, offset[no] + size * index, size / colSize[no], colSize[no]);
+    }
+
+    /**
+     * set one Matrix of a batch.
+     * @param no matrix number
+     * @param batch number of matrixes in the batch
+     * @param index index in the batch
+     * @param m matrix
+     */
+    public void setBatchMat(final int no, final int batch, final int index, final IMatrix m) {
+        if (isSparse(no)) {
+            throw new UnsupportedOperationException("Not supported for sparse matrix.");
+        }
+        int size = matSize[no] / batch;
+        if (m.getSize() != size || m.getColSize() != colSize[no]) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        download();
+        m.accept(ary, offset[no] + size * index);
+        aryDirty = true;
     }
 
     /**
@@ -80,7 +682,7 @@ public abstract class MatKernel extends Kernel {
     protected void matAdd(int in1, int in2, int out) {
 
         int i = getGlobalId();
-        if (i > matSize[out]) return;
+        if (i >= matSize[out]) return;
 
         int p0 = offset[out] + i;
         int p1 = offset[in1] + i;
@@ -105,7 +707,7 @@ public abstract class MatKernel extends Kernel {
     protected void matSub(int in1, int in2, int out) {
 
         int i = getGlobalId();
-        if (i > matSize[out]) return;
+        if (i >= matSize[out]) return;
 
         int p0 = offset[out] + i;
         int p1 = offset[in1] + i;
@@ -114,102 +716,1014 @@ public abstract class MatKernel extends Kernel {
     }
 
     /**
-     * ReLU (Rectified linear unit).
+     * ReLU (Rectified linear unit).
+     * <pre>
+     * An simple activation function for neural network.
+     * This is enough complicity for machine learning.
+     * That's differentiate is so simple!
+     *
+     * ReLu(x) = max(0,x)
+     *         = 0 (x <  0)
+     *           x (x >= 0)
+     *
+     * cf.
+     * ReLu-1(x) = 0 (x <  0)
+     *             1 (x >= 0)
+     * 
+     * paralles size : matrix size (= row * col)
+     * </pre>
+     * @param in input
+     * @param out output
+     */
+    protected void matReLu(int in,int out) {
+
+        int i = getGlobalId();
+        if (i >= matSize[out]) return;
+
+        int p0 = offset[out] + i;
+        int p1 = offset[in] + i;
+        ary[p0] = max(ary[p1],0.0f);
+    }
+
+    /**
+     * differentiate of ReLU (Rectified linear unit).
+     * <pre>
+     * an simple activation function for neural network.
+     *
+     * ReLu-1(x) = 0 (x <  0)
+     *             1 (x >= 0)
+     * 
+     * cf.
+     * ReLu(x) = max(0,x)
+     *         = 0 (x <  0)
+     *           x (x >= 0)
+     * 
+     * paralles size : matrix size (= row * col)
+     * </pre>
+     * @param in input
+     * @param out output
+     */
+    protected void matdReLu(int in,int out) {
+        
+        int i = getGlobalId();
+        if (i >= matSize[out]) return;
+
+        int p0 = offset[out] + i;
+        int p1 = offset[in] + i;
+        ary[p0] = ary[p1] < 0.0f ? 0.0f : 1.0f;
+    }
+
+    /**
+     * multiple.
+     * <pre>
+     * in1       in2        out
+     * |a b c|   |A B C|    |aA+bD+cG dA+eD+fG gA+hD+iG|
+     * |d e f| X |D E F| -> |aB+bE+cH dB+eE+fH gB+hE+iH|
+     * |g h i|   |G H I|    |aC+aF+aI dC+eF+fI gC+hF+iI|
+     * 
+     * paralles size : matrix size (= row * col)
+     * </pre>
+     * @param in1 input1
+     * @param in2 input2
+     * @param out output
+     */
+    protected void matMul(int in1, int in2, int out) {
+        
+        int i = getGlobalId();
+        if (i >= matSize[out]) return;
+
+        int c0 = colSize[out];
+        int c1 = colSize[in1];
+        int c2 = colSize[in2];
+
+        int col = i % c0;
+        int row = (i - col) / c0;
+
+        int p0 = offset[out] + i;
+        int p1 = offset[in1] + c1 * row;
+        int p2 = offset[in2] + col;
+
+        float mul = 0.0f;
+        for (int cnt=0; cnt < c1; cnt++) {
+            mul += ary[p1] * ary[p2];
+            p1 += 1;
+            p2 += c2;
+        }
+        ary[p0] = mul;
+    }
+    
+    /**
+     * general matrix multiple.
+     * <pre>
+     * out = alpha * op(in1) X op(in2) + beta * out
+     * op(x) = x^T if the transpose flag is set, else x.
+     *
+     * Transposed operands are read with transposed indexing,
+     * so no transposed matrix is written. (ex. in1^T X in2 for backprop)
+     * The result is accumulated into out in place.
+     * If beta is 0, out is not read.
+     *
+     * paralles size : matrix size of out (= row * col)
+     * </pre>
+     * @param in1 input1
+     * @param transA transpose in1 or not
+     * @param in2 input2
+     * @param transB transpose in2 or not
+     * @param alpha scale of the product
+     * @param beta scale of out
+     * @param out input and output
+     */
+    protected void matGemm(int in1, boolean transA, int in2, boolean transB, float alpha, float beta, int out) {
+
+        int i = getGlobalId();
+        if (i >= matSize[out]) return;
+
+        int c0 = colSize[out];
+        int c1 = colSize[in1];
+        int c2 = colSize[in2];
+        // inner size
+        int k = transA ? matSize[in1] / c1 : c1;
+
+        int col = i % c0;
+        int row = (i - col) / c0;
+
+        int p1 = offset[in1] + (transA ? row : c1 * row);
+        int s1 = transA ? c1 : 1;
+        int p2 = offset[in2] + (transB ? c2 * col : col);
+        int s2 = transB ? 1 : c2;
+
+        float mul = 0.0f;
+        for (int cnt=0; cnt < k; cnt++) {
+            mul += ary[p1] * ary[p2];
+            p1 += s1;
+            p2 += s2;
+        }
+
+        int p0 = offset[out] + i;
+        if (beta == 0.0f) {
+            ary[p0] = alpha * mul;
+        } else {
+            ary[p0] = alpha * mul + beta * ary[p0];
+        }
+    }
+
+    /**
+     * batched multiple.
+     * <pre>
+     * out[b] = in1[b] X in2[b]   (b = 0 .. batch - 1)
+     *
+     * Each matrix is a batch of vertically stacked matrixes
+     * (see getBatchMat()). in2 can be a single matrix,
+     * then it is shared by all the batch. (ex. weights of a layer)
+     *
+     * in1 : (batch * m) x k
+     * in2 : (batch * k) x n  or  k x n
+     * out : (batch * m) x n
+     *
+     * All products are calculated in one execution.
+     * paralles size : rangeBatched(out, batch)
+     *                 (m * n, batch)
+     * </pre>
+     * @param in1 input1
+     * @param in2 input2
+     * @param out output
+     * @param batch number of matrixes in a batch
+     */
+    protected void matMulBatched(int in1, int in2, int out, int batch) {
+
+        int i = getGlobalId(0);
+        int b = getGlobalId(1);
+        int size = matSize[out] / batch;
+        if (i >= size || b >= batch) return;
+
+        int c0 = colSize[out];
+        int c1 = colSize[in1];
+        int c2 = colSize[in2];
+        // in2 is shared or not.
+        int stride2 = matSize[in2] == c1 * c2 ? 0 : c1 * c2;
+
+        int col = i % c0;
+        int row = (i - col) / c0;
+
+        int p0 = offset[out] + size * b + i;
+        int p1 = offset[in1] + (size / c0) * c1 * b + c1 * row;
+        int p2 = offset[in2] + stride2 * b + col;
+
+        float mul = 0.0f;
+        for (int cnt=0; cnt < c1; cnt++) {
+            mul += ary[p1] * ary[p2];
+            p1 += 1;
+            p2 += c2;
+        }
+        ary[p0] = mul;
+    }
+
+    /**
+     * fused elementwise operations.
+     * <pre>
+     * ex. MatFusion.mul(0, 1).add(2).reLu().into(3)
+     * in1       in2     in3      out
+     * |a b|     |A B|   |x y|    |ReLu(aA+bC+x) ReLu(aB+bD+y)|
+     * |c d|  X  |C D| + |z w| -> |ReLu(cA+dC+z) ReLu(cB+dD+w)|
+     * 
+     * The chain is applied on a register for each element,
+     * so no intermediate matrix is written.
+     * 
+     * paralles size : matrix size of out (= row * col)
+     * </pre>
+     * @param pc program counter (returned by fuse())
+     */
+    protected void matFused(int pc) {
+
+        int out = prog[pc];
+        int i = getGlobalId();
+        if (i >= matSize[out]) return;
+
+        float acc = 0.0f;
+        int in1 = prog[pc + 2];
+        if (MatFusion.MUL == prog[pc + 1]) {
+            int in2 = prog[pc + 3];
+            int c0 = colSize[out];
+            int c1 = colSize[in1];
+            int c2 = colSize[in2];
+
+            int col = i % c0;
+            int row = (i - col) / c0;
+
+            int p1 = offset[in1] + c1 * row;
+            int p2 = offset[in2] + col;
+            for (int cnt = 0; cnt < c1; cnt++) {
+                acc += ary[p1] * ary[p2];
+                p1 += 1;
+                p2 += c2;
+            }
+        } else {
+            acc = ary[offset[in1] + i];
+        }
+
+        int n = prog[pc + 4];
+        int p = pc + MatFusion.HEADER;
+        for (int s = 0; s < n; s++) {
+            int op = prog[p];
+            int arg = offset[prog[p + 1]] + i;
+            if (MatFusion.ADD == op) {
+                acc = acc + ary[arg];
+            } else if (MatFusion.SUB == op) {
+                acc = acc - ary[arg];
+            } else if (MatFusion.HMUL == op) {
+                acc = acc * ary[arg];
+            } else if (MatFusion.RELU == op) {
+                acc = max(acc, 0.0f);
+            } else if (MatFusion.DRELU == op) {
+                acc = acc < 0.0f ? 0.0f : 1.0f;
+            }
+            p += 2;
+        }
+        ary[offset[out] + i] = acc;
+    }
+
+    /**
+     * multiple (tiled).
+     * <pre>
+     * Same result as matMul().
+     * 
+     * in1 and in2 are processed tile by tile.
+     * Each work group stages a tile of in1 and a tile of in2 on local memory,
+     * and all work items in the group multiply them.
+     * So, each element of in1 and in2 is read from global memory
+     * only (col / tile) or (row / tile) times.
+     * 
+     * in1                 in2           out
+     * |A0 A1 A2|   X   |B0|    ->    |A0B0+A1B1+A2B2|
+     *                  |B1|
+     *                  |B2|
+     * 
+     * range : rangeTiled(out) (2D, work group = tile x tile)
+     * </pre>
+     * @param in1 input1
+     * @param in2 input2
+     * @param out output
+     */
+    protected void matMulTiled(int in1, int in2, int out) {
+
+        int t = tile;
+        int lc = getLocalId(0);
+        int lr = getLocalId(1);
+        int col = getGlobalId(0);
+        int row = getGlobalId(1);
+
+        int c0 = colSize[out];
+        int r0 = matSize[out] / c0;
+        int c1 = colSize[in1];
+        int c2 = colSize[in2];
+
+        // don't return before barriers. all work items must reach them.
+        float mul = 0.0f;
+        for (int k0 = 0; k0 < c1; k0 += t) {
+            int ka = k0 + lc;
+            int kb = k0 + lr;
+            tileA[lr * t + lc] = (row < r0 && ka < c1) ? ary[offset[in1] + c1 * row + ka] : 0.0f;
+            tileB[lr * t + lc] = (kb < c1 && col < c0) ? ary[offset[in2] + c2 * kb + col] : 0.0f;
+            localBarrier();
+
+            for (int k = 0; k < t; k++) {
+                mul += tileA[lr * t + k] * tileB[k * t + lc];
+            }
+            localBarrier();
+        }
+
+        if (row < r0 && col < c0) {
+            ary[offset[out] + c0 * row + col] = mul;
+        }
+    }
+
+    /**
+     * reduce each row.
+     * <pre>
+     * in          out (row x 1)
+     * |a b c|     |op(a, b, c)|
+     * |d e f|  -> |op(d, e, f)|
+     *
+     * op : REDUCE_SUM, REDUCE_MAX, REDUCE_MIN, REDUCE_ARGMAX (col index),
+     *      REDUCE_NORM
+     *
+     * paralles size : rangeReduce(row size of in)
+     * </pre>
+     * @param in input
+     * @param out output
+     * @param op reduction
+     */
+    protected void matReduceRow(int in, int out, int op) {
+        int c = colSize[in];
+        matReduce(in, out, op, matSize[in] / c, c, c, 1);
+    }
+
+    /**
+     * reduce each col.
+     * <pre>
+     * in          out (1 x col)
+     * |a b c|     |op(a, d) op(b, e) op(c, f)|
+     * |d e f|  ->
+     *
+     * paralles size : rangeReduce(col size of in)
+     * </pre>
+     * @param in input
+     * @param out output
+     * @param op reduction (REDUCE_ARGMAX : row index)
+     */
+    protected void matReduceCol(int in, int out, int op) {
+        int c = colSize[in];
+        matReduce(in, out, op, c, matSize[in] / c, 1, c);
+    }
+
+    /**
+     * reduce all elements.
+     * <pre>
+     * in          out (1 x 1)
+     * |a b c|     |op(a, b, c, d, e, f)|
+     * |d e f|  ->
+     *
+     * Two passes with a partial result matrix part (2 x groups).
+     *  pass 0 : each of 'groups' work groups folds elements
+     *           j = g n + l, g n + l + groups n, ... (n : local size)
+     *           and writes (value, index) to part. (row 0, row 1)
+     *  pass 1 : one work group reduces the partials into out.
+     * The index of argmax is carried through both stages, so the result
+     * is the first index of the max in row major order.
+     * (sum of squares for REDUCE_NORM, sqrt is taken in pass 1)
+     * groups is free. about min(size / (tile * tile), tile * tile) is good.
+     * Indexes are stored as float, exact up to 2^24 elements.
+     *
+     * paralles size : rangeReduce(col size of part)
+     * </pre>
+     * @param in input
+     * @param part partial results (2 x groups)
+     * @param out output
+     * @param op reduction (REDUCE_ARGMAX : index in row major order)
+     * @param pass 0 : partial results, 1 : final result
+     */
+    protected void matReduceAll(int in, int part, int out, int op, int pass) {
+
+        int g = getGroupId();
+        int l = getLocalId();
+        int n = getLocalSize();
+        int groups = colSize[part];
+
+        // don't return before barriers. all work items must reach them.
+        boolean isSum = REDUCE_SUM == op || REDUCE_NORM == op;
+        float acc = REDUCE_MIN == op ? REDUCE_INF : -REDUCE_INF;
+        if (isSum) {
+            acc = 0.0f;
+        }
+        int arg = -1;
+        if (0 == pass) {
+            if (g < groups) {
+                int p = offset[in];
+                int len = matSize[in];
+                for (int j = g * n + l; j < len; j += groups * n) {
+                    float v = ary[p + j];
+                    if (REDUCE_SUM == op) {
+                        acc += v;
+                    } else if (REDUCE_NORM == op) {
+                        acc += v * v;
+                    } else if (REDUCE_MIN == op) {
+                        acc = min(acc, v);
+                    } else if (arg < 0 || v > acc) {
+                        acc = v;
+                        arg = j;
+                    }
+                }
+            }
+        } else if (0 == g) {
+            int p = offset[part];
+            for (int j = l; j < groups; j += n) {
+                float v = ary[p + j];
+                int idx = (int) ary[p + groups + j];
+                if (isSum) {
+                    acc += v;
+                } else if (REDUCE_MIN == op) {
+                    acc = min(acc, v);
+                } else if (idx >= 0 && (arg < 0 || v > acc || (v == acc && idx < arg))) {
+                    acc = v;
+                    arg = idx;
+                }
+            }
+        }
+        tileA[l] = acc;
+        tileIdx[l] = arg;
+        localBarrier();
+        reduceLocal(op);
+
+        if (l == 0) {
+            if (0 == pass && g < groups) {
+                ary[offset[part] + g] = tileA[0];
+                ary[offset[part] + groups + g] = tileIdx[0];
+            } else if (0 != pass && 0 == g) {
+                float r = tileA[0];
+                if (REDUCE_NORM == op) {
+                    r = sqrt(r);
+                } else if (REDUCE_ARGMAX == op) {
+                    r = tileIdx[0];
+                }
+                ary[offset[out]] = r;
+            }
+        }
+    }
+
+    /**
+     * tree reduction on local memory.
+     * <pre>
+     * Each work group reduces one line of 'len' elements.
+     * element j of line g : ary[offset[in] + g * lineStride + j * stride]
+     *
+     * 1. each work item folds elements j = l, l + n, l + 2n, ...
+     * 2. partial results are combined on local memory in log2(n) steps.
+     *
+     * Kernels with localBarrier() can't run on the Fork-Join engine.
+     * </pre>
+     * @param in input
+     * @param out output (one element per line)
+     * @param op reduction
+     * @param lines number of lines
+     * @param len number of elements of a line
+     * @param lineStride distance between the first elements of lines
+     * @param stride distance between elements of a line
+     */
+    protected void matReduce(int in, int out, int op, int lines, int len, int lineStride, int stride) {
+
+        int g = getGroupId();
+        int l = getLocalId();
+        int n = getLocalSize();
+
+        // don't return before barriers. all work items must reach them.
+        boolean isSum = REDUCE_SUM == op || REDUCE_NORM == op;
+        float acc = REDUCE_MIN == op ? REDUCE_INF : -REDUCE_INF;
+        if (isSum) {
+            acc = 0.0f;
+        }
+        int arg = -1;
+        if (g < lines) {
+            int p = offset[in] + g * lineStride;
+            for (int j = l; j < len; j += n) {
+                float v = ary[p + j * stride];
+                if (REDUCE_SUM == op) {
+                    acc += v;
+                } else if (REDUCE_NORM == op) {
+                    acc += v * v;
+                } else if (REDUCE_MIN == op) {
+                    acc = min(acc, v);
+                } else if (arg < 0 || v > acc) {
+                    acc = v;
+                    arg = j;
+                }
+            }
+        }
+        tileA[l] = acc;
+        tileIdx[l] = arg;
+        localBarrier();
+        reduceLocal(op);
+
+        if (l == 0 && g < lines) {
+            float r = tileA[0];
+            if (REDUCE_NORM == op) {
+                r = sqrt(r);
+            } else if (REDUCE_ARGMAX == op) {
+                r = tileIdx[0];
+            }
+            ary[offset[out] + g] = r;
+        }
+    }
+
+    /**
+     * combine partial results on local memory.
+     * <pre>
+     * tileA[0 .. n-1] (and tileIdx for max/argmax) are combined
+     * into tileA[0] (and tileIdx[0]) in log2(n) steps.
+     * Call after localBarrier(). All work items of the group must call this.
+     * </pre>
+     * @param op reduction
+     */
+    protected void reduceLocal(int op) {
+        int l = getLocalId();
+        int n = getLocalSize();
+        int half = 1;
+        while (half * 2 < n) {
+            half *= 2;
+        }
+        for (int s = half; s > 0; s /= 2) {
+            if (l < s && l + s < n) {
+                float a = tileA[l];
+                float b = tileA[l + s];
+                int ia = tileIdx[l];
+                int ib = tileIdx[l + s];
+                if (REDUCE_SUM == op || REDUCE_NORM == op) {
+                    tileA[l] = a + b;
+                } else if (REDUCE_MIN == op) {
+                    tileA[l] = min(a, b);
+                } else if (ib >= 0 && (ia < 0 || b > a || (b == a && ib < ia))) {
+                    tileA[l] = b;
+                    tileIdx[l] = ib;
+                }
+            }
+            localBarrier();
+        }
+    }
+
+    /**
+     * softmax of each row.
+     * <pre>
+     * in          out
+     * |a b c|     |e^a/S e^b/S e^c/S|   S = e^a + e^b + e^c
+     * |d e f|  -> |...              |
+     *
+     * The max of the row is subtracted before exp() for numerical stability.
+     * max, exp/sum and normalize are done in one kernel
+     * with reductions on local memory.
+     * in and out can be the same matrix.
+     *
+     * paralles size : rangeReduce(row size)
+     * </pre>
+     * @param in input (logits)
+     * @param out output (probabilities)
+     */
+    protected void matSoftmax(int in, int out) {
+        matSoftmaxCE(in, -1, out, -1);
+    }
+
+    /**
+     * softmax with cross entropy.
+     * <pre>
+     * p = softmax(in) (for each row)
+     * out  = p - target          (gradient of loss by in)
+     * loss = -sum(target * log(p)) for each row (row x 1)
+     *
+     * log(p) is calculated as (in - max) - log(S), so it is finite
+     * even if p underflows.
+     * For the mean of the batch, divide by the row size.
+     * target = -1 : softmax only, loss is not written.
+     * out must not be in. (in is read after out is written)
+     *
+     * paralles size : rangeReduce(row size)
+     * </pre>
+     * @param in input (logits)
+     * @param target target (one-hot or probabilities)
+     * @param out output (gradient)
+     * @param loss loss of each row
+     */
+    protected void matSoftmaxCE(int in, int target, int out, int loss) {
+
+        int g = getGroupId();
+        int l = getLocalId();
+        int n = getLocalSize();
+
+        int c = colSize[in];
+        int rows = matSize[in] / c;
+        int p1 = offset[in] + g * c;
+        int p0 = offset[out] + g * c;
+        int pt = target < 0 ? 0 : offset[target] + g * c;
+
+        // don't return before barriers. all work items must reach them.
+        // === max ===
+        float m = -REDUCE_INF;
+        int arg = -1;
+        if (g < rows) {
+            for (int j = l; j < c; j += n) {
+                if (arg < 0 || ary[p1 + j] > m) {
+                    m = ary[p1 + j];
+                    arg = j;
+                }
+            }
+        }
+        tileA[l] = m;
+        tileIdx[l] = arg;
+        localBarrier();
+        reduceLocal(REDUCE_MAX);
+        m = tileA[0];
+        localBarrier();
+
+        // === sum of exp ===
+        float sum = 0.0f;
+        if (g < rows) {
+            for (int j = l; j < c; j += n) {
+                float e = exp(ary[p1 + j] - m);
+                sum += e;
+                ary[p0 + j] = e;
+            }
+        }
+        tileA[l] = sum;
+        localBarrier();
+        reduceLocal(REDUCE_SUM);
+        sum = tileA[0];
+        localBarrier();
+
+        // === normalize, gradient and loss ===
+        float logSum = log(sum);
+        float ce = 0.0f;
+        if (g < rows) {
+            for (int j = l; j < c; j += n) {
+                float p = ary[p0 + j] / sum;
+                if (target < 0) {
+                    ary[p0 + j] = p;
+                } else {
+                    float t = ary[pt + j];
+                    ary[p0 + j] = p - t;
+                    if (t != 0.0f) {
+                        ce -= t * (ary[p1 + j] - m - logSum);
+                    }
+                }
+            }
+        }
+        tileA[l] = ce;
+        localBarrier();
+        reduceLocal(REDUCE_SUM);
+
+        if (l == 0 && g < rows && loss >= 0) {
+            ary[offset[loss] + g] = tileA[0];
+        }
+    }
+
+    /**
+     * blocked LU decomposition with partial pivoting.
+     * <pre>
+     * The same decomposition as Matrix.toLU(), executed on the kernel.
+     * a is overwritten by the packed L\U (L with diagonal, U with unit diagonal),
+     * rows in pivoting order. piv (1 x n) is the order returned by toLU(),
+     * stored as float.
+     * |l(11) u(12) u(13)|
+     * |l(21) l(22) u(23)|
+     * |l(31) l(32) l(33)|
+     *
+     * Right-looking blocked algorithm. for each block of nb cols:
+     *  pass 3k   : panel, LU of the nb cols with pivoting (one work group)
+     *  pass 3k+1 : row block, U12 = L11^-1 A12 (one work item per col)
+     *  pass 3k+2 : trailing update, A22 = A22 - L21 X U12
+     *
+     * MatKernel kernel = new MatKernel(a, new MockMatrix(1, n)) {
+     *     public void run() {
+     *         matLU(0, 1, NB, getPassId());
+     *     }
+     * };
+     * kernel.execute(kernel.rangeLU(0), kernel.passesLU(0, NB));
+     *
+     * The panel uses local memory and localBarrier(),
+     * so this can't run on the Fork-Join engine.
+     * paralles size : rangeLU(a), passes : passesLU(a, nb)
+     * </pre>
+     * @param a input and output (square)
+     * @param piv pivot order (1 x n)
+     * @param nb block size
+     * @param pass pass of LU (0 .. passesLU(a, nb) - 1)
+     */
+    protected void matLU(int a, int piv, int nb, int pass) {
+        int stage = pass % 3;
+        int k0 = (pass - stage) / 3 * nb;
+        if (0 == stage) {
+            matLUPanel(a, piv, k0, nb);
+        } else if (1 == stage) {
+            matLURowBlock(a, k0, nb);
+        } else {
+            matLUUpdate(a, k0, nb);
+        }
+    }
+
+    /**
+     * panel of matLU.
+     */
+    protected void matLUPanel(int a, int piv, int k0, int nb) {
+        if (getGroupId() != 0) return;
+
+        // work items exchange rows of 'a' through global memory,
+        // so every barrier fences global memory too.
+
+        int l = getLocalId();
+        int nl = getLocalSize();
+        int n = colSize[a];
+        int pa = offset[a];
+        int pp = offset[piv];
+        int end = min(k0 + nb, n);
+
+        if (k0 == 0) {
+            for (int y = l; y < n; y += nl) {
+                ary[pp + y] = y;
+            }
+        }
+
+        for (int s = k0; s < end; s++) {
+            // === pivot select ===
+            float best = 0.0f;
+            int arg = -1;
+            for (int y = s + l; y < n; y += nl) {
+                float v = abs(ary[pa + y * n + s]);
+                if (best < v) {
+                    best = v;
+                    arg = y;
+                }
+            }
+            tileA[l] = best;
+            tileIdx[l] = arg;
+            localGlobalBarrier();
+            reduceLocal(REDUCE_MAX);
+            int p = tileIdx[0];
+            localGlobalBarrier();
+
+            if (p < 0) {
+                // l[s][s] == 0. approximate as toLU() does.
+                if (l == 0) {
+                    ary[pa + s * n + s] = Float.MIN_VALUE;
+                }
+            } else if (p != s) {
+                // === swap rows s and p ===
+                for (int x = l; x < n; x += nl) {
+                    float t = ary[pa + s * n + x];
+                    ary[pa + s * n + x] = ary[pa + p * n + x];
+                    ary[pa + p * n + x] = t;
+                }
+                if (l == 0) {
+                    float t = ary[pp + s];
+                    ary[pp + s] = ary[pp + p];
+                    ary[pp + p] = t;
+                }
+            }
+            localGlobalBarrier();
+
+            // === u[s][x] in the panel ===
+            float d = ary[pa + s * n + s];
+            for (int x = s + 1 + l; x < end; x += nl) {
+                ary[pa + s * n + x] /= d;
+            }
+            localGlobalBarrier();
+
+            // === rank-1 update of the panel ===
+            int w = end - s - 1;
+            int h = n - s - 1;
+            for (int i = l; i < w * h; i += nl) {
+                int x = s + 1 + i % w;
+                int y = s + 1 + i / w;
+                ary[pa + y * n + x] -= ary[pa + y * n + s] * ary[pa + s * n + x];
+            }
+            localGlobalBarrier();
+        }
+    }
+
+    /**
+     * row block of matLU. U12 = L11^-1 A12
+     */
+    protected void matLURowBlock(int a, int k0, int nb) {
+        int n = colSize[a];
+        int end = min(k0 + nb, n);
+        int x = end + getGlobalId();
+        if (x >= n) return;
+
+        int pa = offset[a];
+        for (int i = k0; i < end; i++) {
+            float v = ary[pa + i * n + x];
+            for (int j = k0; j < i; j++) {
+                v -= ary[pa + i * n + j] * ary[pa + j * n + x];
+            }
+            ary[pa + i * n + x] = v / ary[pa + i * n + i];
+        }
+    }
+
+    /**
+     * trailing update of matLU. A22 = A22 - L21 X U12
+     */
+    protected void matLUUpdate(int a, int k0, int nb) {
+        int n = colSize[a];
+        int end = min(k0 + nb, n);
+        int w = n - end;
+        int i = getGlobalId();
+        if (i >= w * w) return;
+
+        int x = end + i % w;
+        int y = end + i / w;
+        int pa = offset[a];
+        int pL = pa + y * n + k0;
+        int pU = pa + k0 * n + x;
+        float mul = 0.0f;
+        for (int k = k0; k < end; k++) {
+            mul += ary[pL] * ary[pU];
+            pL += 1;
+            pU += n;
+        }
+        ary[pa + y * n + x] -= mul;
+    }
+
+    /**
+     * solve A X = B with LU of A.
      * <pre>
-     * An simple activation function for neural network.
-     * This is enough complicity for machine learning.
-     * That's differentiate is so simple!
-     *
-     * ReLu(x) = max(0,x)
-     *         = 0 (x <  0)
-     *           x (x >= 0)
+     * lu is the packed LU of A and piv is its pivot order
+     * (Matrix.toLU() or matLU()).
+     * L Y = P B (forward) and U X = Y (back) are substituted
+     * without calculating the inverse of A.
+     * Each work item solves one col of B.
      *
-     * cf.
-     * ReLu-1(x) = 0 (x <  0)
-     *             1 (x >= 0)
-     * 
-     * paralles size : matrix size (= row * col)
+     * paralles size : col size of b
      * </pre>
-     * @param in input
-     * @param out output
+     * @param lu packed LU (n x n)
+     * @param piv pivot order (1 x n)
+     * @param b right-hand sides (n x m)
+     * @param out X (n x m, must not be b)
      */
-    protected void matReLu(int in,int out) {
+    protected void matSolveLU(int lu, int piv, int b, int out) {
 
-        int i = getGlobalId();
-        if (i > matSize[out]) return;
+        int c = getGlobalId();
+        int m = colSize[b];
+        if (c >= m) return;
 
-        int p0 = offset[out] + i;
-        int p1 = offset[in] + i;
-        ary[p0] = max(ary[p1],0.0f);
+        int n = colSize[lu];
+        int pa = offset[lu];
+        int pp = offset[piv];
+        int px = offset[out] + c;
+        int pb = offset[b] + c;
+
+        // === L Y = P B ===
+        for (int i = 0; i < n; i++) {
+            int row = (int) ary[pp + i];
+            float v = ary[pb + row * m];
+            for (int j = 0; j < i; j++) {
+                v -= ary[pa + i * n + j] * ary[px + j * m];
+            }
+            ary[px + i * m] = v / ary[pa + i * n + i];
+        }
+        // === U X = Y ===
+        for (int i = n - 2; i >= 0; i--) {
+            float v = ary[px + i * m];
+            for (int j = i + 1; j < n; j++) {
+                v -= ary[pa + i * n + j] * ary[px + j * m];
+            }
+            ary[px + i * m] = v;
+        }
     }
 
     /**
-     * differentiate of ReLU (Rectified linear unit).
+     * Householder QR decomposition.
      * <pre>
-     * an simple activation function for neural network.
+     * The same decomposition as MatQR, executed on the kernel.
+     * Unlike MatQR (TSQR, blocked compact WY on the host), this is
+     * the unblocked algorithm: one reflector is applied per col,
+     * with matrix-vector products. (no TSQR tree, no WY form)
+     * a (m x n) is overwritten by R (upper triangle) and Householder vectors
+     * (below diagonal, the leading 1 is omitted). tau (1 x n) is the scalar
+     * factors, w (1 x n) is a work area.
+     * H(j) = I - tau[j] v(j) v(j)^T,  Q = H(0) H(1) .. H(n-1)
      *
-     * ReLu-1(x) = 0 (x <  0)
-     *             1 (x >= 0)
-     * 
-     * cf.
-     * ReLu(x) = max(0,x)
-     *         = 0 (x <  0)
-     *           x (x >= 0)
-     * 
-     * paralles size : matrix size (= row * col)
+     * for each col j:
+     *  pass 3j   : H(j) from the norm of a[j+1:, j] (one work group)
+     *  pass 3j+1 : w = tau v^T C (one work group per trailing col)
+     *  pass 3j+2 : C = C - v w (one work item per element)
+     * So reductions along the (long) cols run on local memory.
+     *
+     * For least squares, factorize [A B] and solve R11 X = R12
+     * (see MatQR).
+     * This can't run on the Fork-Join engine (local memory).
+     * paralles size : rangeQR(a), passes : passesQR(a)
      * </pre>
-     * @param in input
-     * @param out output
+     * @param a input and output (m x n, m &gt;= n)
+     * @param tau scalar factors (1 x n)
+     * @param w work area (1 x n)
+     * @param pass pass of QR (0 .. passesQR(a) - 1)
      */
-    protected void matdReLu(int in,int out) {
-        
-        int i = getGlobalId();
-        if (i > matSize[out]) return;
-
-        int p0 = offset[out] + i;
-        int p1 = offset[in] + i;
-        ary[p0] = ary[p1] < 0.0f ? 0.0f : 1.0f;
+    protected void matQR(int a, int tau, int w, int pass) {
+        int stage = pass % 3;
+        int j = (pass - stage) / 3;
+        if (0 == stage) {
+            matQRReflector(a, tau, j);
+        } else if (1 == stage) {
+            matQRDot(a, tau, w, j);
+        } else {
+            matQRUpdate(a, w, j);
+        }
     }
 
     /**
-     * multiple.
-     * <pre>
-     * in1       in2        out
-     * |a b c|   |A B C|    |aA+bD+cG dA+eD+fG gA+hD+iG|
-     * |d e f| X |D E F| -> |aB+bE+cH dB+eE+fH gB+hE+iH|
-     * |g h i|   |G H I|    |aC+aF+aI dC+eF+fI gC+hF+iI|
-     * 
-     * paralles size : matrix size (= row * col)
-     * </pre>
-     * @param in1 input1
-     * @param in2 input2
-     * @param out output
+     * Householder reflector of matQR.
      */
-    protected void matMul(int in1, int in2, int out) {
-        
-        int i = getGlobalId();
-        if (i > matSize[out]) return;
+    protected void matQRReflector(int a, int tau, int j) {
+        if (getGroupId() != 0) return;
 
-        int c0 = colSize[out];
-        int c1 = colSize[in1];
-        int c2 = colSize[in2];
+        int l = getLocalId();
+        int nl = getLocalSize();
+        int n = colSize[a];
+        int m = matSize[a] / n;
+        int pa = offset[a];
 
-        int col = i % c0;
-        int row = (i - col) / c0;
+        float sigma = 0.0f;
+        for (int i = j + 1 + l; i < m; i += nl) {
+            float v = ary[pa + i * n + j];
+            sigma += v * v;
+        }
+        tileA[l] = sigma;
+        localBarrier();
+        reduceLocal(REDUCE_SUM);
+        sigma = tileA[0];
+        float alpha = ary[pa + j * n + j];
+        // all work items read alpha before it is overwritten. (global memory)
+        localGlobalBarrier();
 
-        int p0 = offset[out] + i;
-        int p1 = offset[in1] + c1 * row;
-        int p2 = offset[in2] + col;
+        float t = 0.0f;
+        float beta = alpha;
+        if (sigma > 0.0f) {
+            float norm = sqrt(alpha * alpha + sigma);
+            beta = alpha <= 0.0f ? norm : -norm;
+            t = (beta - alpha) / beta;
+            float scale = 1.0f / (alpha - beta);
+            for (int i = j + 1 + l; i < m; i += nl) {
+                ary[pa + i * n + j] *= scale;
+            }
+        }
+        if (l == 0) {
+            ary[offset[tau] + j] = t;
+            ary[pa + j * n + j] = beta;
+        }
+    }
 
-        float mul = 0.0f;
-        for (int cnt=0; cnt < c1; cnt++) {
-            mul += ary[p1] * ary[p2];
-            p1 += 1;
-            p2 += c2;
+    /**
+     * w = tau v^T C of matQR.
+     */
+    protected void matQRDot(int a, int tau, int w, int j) {
+        int l = getLocalId();
+        int nl = getLocalSize();
+        int n = colSize[a];
+        int m = matSize[a] / n;
+        int pa = offset[a];
+        int c = j + 1 + getGroupId();
+
+        // don't return before barriers. all work items must reach them.
+        float dot = 0.0f;
+        if (c < n) {
+            if (l == 0) {
+                dot = ary[pa + j * n + c];
+            }
+            for (int i = j + 1 + l; i < m; i += nl) {
+                dot += ary[pa + i * n + j] * ary[pa + i * n + c];
+            }
+        }
+        tileA[l] = dot;
+        localBarrier();
+        reduceLocal(REDUCE_SUM);
+
+        if (l == 0 && c < n) {
+            ary[offset[w] + c] = ary[offset[tau] + j] * tileA[0];
         }
-        ary[p0] = mul;
     }
-    
+
+    /**
+     * C = C - v w of matQR.
+     */
+    protected void matQRUpdate(int a, int w, int j) {
+        int n = colSize[a];
+        int m = matSize[a] / n;
+        int width = n - j - 1;
+        int i = getGlobalId();
+        if (i >= (m - j) * width) return;
+
+        int c = j + 1 + i % width;
+        int r = j + i / width;
+        int pa = offset[a];
+        float v = r == j ? 1.0f : ary[pa + r * n + j];
+        ary[pa + r * n + c] -= v * ary[offset[w] + c];
+    }
+
     /**
      * multiple LU.
      * <pre>
@@ -231,7 +1745,7 @@ public abstract class MatKernel extends Kernel {
     protected void matMulLU(int in, int out) {
         
         int i = getGlobalId();
-        if (i > matSize[out]) return;
+        if (i >= matSize[out]) return;
         
         int size = colSize[in];
 
@@ -277,7 +1791,7 @@ public abstract class MatKernel extends Kernel {
     protected void matMulUL(int in, int out) {
         
         int i = getGlobalId();
-        if (i > matSize[out]) return;
+        if (i >= matSize[out]) return;
         
         int size = colSize[in];
 
@@ -302,6 +1816,47 @@ public abstract class MatKernel extends Kernel {
         ary[p0] = mul;
     }
     
+    /**
+     * multiple UL and revert pivoting.
+     * <pre>
+     * The same as matMulUL(in, tmp) and matSortCol(tmp, out, order),
+     * in one pass. The product is written directly to the col piv[col].
+     * With in = U^-1 \ L^-1 of PA = LU, out = A^-1.
+     *
+     * paralles size : matrix size (= row * col)
+     * </pre>
+     * @param in  input (U^-1 and L^-1 combined as matMulUL)
+     * @param piv pivot order (1 x n, see matLU())
+     * @param out output
+     */
+    protected void matMulULPiv(int in, int piv, int out) {
+
+        int i = getGlobalId();
+        if (i >= matSize[out]) return;
+
+        int size = colSize[in];
+
+        int col = i % size;
+        int row = (i - col) / size;
+        int skip = max(row, col);
+
+        int p0 = offset[out] + size * row + (int) ary[offset[piv] + col];
+        int pU = offset[in] + size * row + skip;
+        int pL = offset[in] + col + size * skip;
+
+        float mul = 0.0f;
+        for (int cnt=skip; cnt < size; cnt++) {
+            if (row == cnt) {
+                mul += ary[pL];
+            } else {
+                mul += ary[pU] * ary[pL];
+            }
+            pU += 1;
+            pL += size;
+        }
+        ary[p0] = mul;
+    }
+
     /**
      * ivert Upper triangle matrix.
      * <pre>
@@ -324,7 +1879,7 @@ public abstract class MatKernel extends Kernel {
         
         int size = colSize[in];
         
-        if (k > size) { return; }
+        if (k >= size) { return; }
         
         int p0 = offset[out] + size * k + k;        
         ary[p0] = 1.0f;
@@ -369,7 +1924,7 @@ public abstract class MatKernel extends Kernel {
         
         int size = colSize[in];
         
-        if (k > size) { return; }
+        if (k >= size) { return; }
         
         int p0 = offset[out] + size * k + k;
         int p1 = offset[in] + size * k + k;
@@ -395,6 +1950,224 @@ public abstract class MatKernel extends Kernel {
         }
     }
     
+    /**
+     * blocked Cholesky decomposition.
+     * <pre>
+     * The same decomposition as Matrix.toCholesky(), executed on the kernel.
+     * a = L L^T. L is written into the lower triangle (includes diagonal) of a.
+     * The upper triangle is not read and not changed.
+     * If a is not positive-definite, the diagonal becomes NaN.
+     *
+     * for each block of nb cols:
+     *  pass 3k   : diagonal block, L11 (one work item)
+     *  pass 3k+1 : panel, L21 = A21 L11^-T (one work item per row)
+     *  pass 3k+2 : trailing update, A22 = A22 - L21 L21^T (one work item per element)
+     *
+     * No local memory is used, so this can also run on the Fork-Join engine.
+     * paralles size : matrix size of a, passes : passesCholesky(a, nb)
+     * </pre>
+     * @param a input and output (n x n, symmetric positive-definite)
+     * @param nb block size
+     * @param pass pass of Cholesky (0 .. passesCholesky(a, nb) - 1)
+     */
+    protected void matCholesky(int a, int nb, int pass) {
+
+        int i = getGlobalId();
+        int n = colSize[a];
+        int stage = pass % 3;
+        int k0 = (pass - stage) / 3 * nb;
+        int end = min(k0 + nb, n);
+        int pa = offset[a];
+
+        if (0 == stage) {
+            // === diagonal block ===
+            if (i != 0) return;
+            for (int j = k0; j < end; j++) {
+                float d = sqrt(ary[pa + j * n + j]);
+                ary[pa + j * n + j] = d;
+                for (int r = j + 1; r < end; r++) {
+                    ary[pa + r * n + j] /= d;
+                }
+                for (int r = j + 1; r < end; r++) {
+                    float l = ary[pa + r * n + j];
+                    for (int p = j + 1; p <= r; p++) {
+                        ary[pa + r * n + p] -= l * ary[pa + p * n + j];
+                    }
+                }
+            }
+        } else if (1 == stage) {
+            // === panel ===
+            int r = end + i;
+            if (r >= n) return;
+            for (int j = k0; j < end; j++) {
+                float v = ary[pa + r * n + j];
+                for (int p = k0; p < j; p++) {
+                    v -= ary[pa + r * n + p] * ary[pa + j * n + p];
+                }
+                ary[pa + r * n + j] = v / ary[pa + j * n + j];
+            }
+        } else {
+            // === trailing update (lower triangle) ===
+            int w = n - end;
+            if (i >= w * w) return;
+            int p = end + i % w;
+            int r = end + i / w;
+            if (p > r) return;
+            float v = 0.0f;
+            for (int j = k0; j < end; j++) {
+                v += ary[pa + r * n + j] * ary[pa + p * n + j];
+            }
+            ary[pa + r * n + p] -= v;
+        }
+    }
+
+    /**
+     * solve A X = B with Cholesky factor of A. (A = L L^T)
+     * <pre>
+     * L Y = B (forward) and L^T X = Y (back) are substituted.
+     * Each work item solves one col of B.
+     *
+     * paralles size : col size of b
+     * </pre>
+     * @param l L in the lower triangle (n x n)
+     * @param b right-hand sides (n x m)
+     * @param out X (n x m, can be b)
+     */
+    protected void matSolveCholesky(int l, int b, int out) {
+
+        int c = getGlobalId();
+        int m = colSize[b];
+        if (c >= m) return;
+
+        int n = colSize[l];
+        int pa = offset[l];
+        int px = offset[out] + c;
+        int pb = offset[b] + c;
+
+        // === L Y = B ===
+        for (int i = 0; i < n; i++) {
+            float v = ary[pb + i * m];
+            for (int j = 0; j < i; j++) {
+                v -= ary[pa + i * n + j] * ary[px + j * m];
+            }
+            ary[px + i * m] = v / ary[pa + i * n + i];
+        }
+        // === L^T X = Y ===
+        for (int i = n - 1; i >= 0; i--) {
+            float v = ary[px + i * m];
+            for (int j = i + 1; j < n; j++) {
+                v -= ary[pa + j * n + i] * ary[px + j * m];
+            }
+            ary[px + i * m] = v / ary[pa + i * n + i];
+        }
+    }
+
+    /**
+     * triangular solve with L. (TRSM)
+     * <pre>
+     * L X = B is solved in place (b is overwritten by X).
+     * L is the lower triangle of in, includes diagonal components.
+     * (the packed LU of Matrix.toLU() or matLU(). the upper triangle is ignored.)
+     *
+     * Blocked forward substitution. for each block of nb rows:
+     *  pass 2k   : diagonal block, X1 = L11^-1 B1 (one work item per col of b)
+     *  pass 2k+1 : update, B2 = B2 - L21 X X1 (one work item per element)
+     * So cols of b and rows below the block are solved in parallel,
+     * instead of inverting L with matInvL and multiplying.
+     *
+     * paralles size : matrix size of b, passes : passesTrsm(in, nb)
+     * </pre>
+     * @param in L (n x n)
+     * @param b right-hand sides and output (n x m)
+     * @param nb block size
+     * @param pass pass of TRSM (0 .. passesTrsm(in, nb) - 1)
+     */
+    protected void matTrsmL(int in, int b, int nb, int pass) {
+
+        int i = getGlobalId();
+        int n = colSize[in];
+        int m = colSize[b];
+        int stage = pass % 2;
+        int k0 = (pass - stage) / 2 * nb;
+        int end = min(k0 + nb, n);
+        int pa = offset[in];
+        int pb = offset[b];
+
+        if (0 == stage) {
+            // === diagonal block ===
+            if (i >= m) return;
+            for (int r = k0; r < end; r++) {
+                float v = ary[pb + r * m + i];
+                for (int j = k0; j < r; j++) {
+                    v -= ary[pa + r * n + j] * ary[pb + j * m + i];
+                }
+                ary[pb + r * m + i] = v / ary[pa + r * n + r];
+            }
+        } else {
+            // === update rows below ===
+            if (i >= (n - end) * m) return;
+            int c = i % m;
+            int r = end + (i - c) / m;
+            float v = 0.0f;
+            for (int j = k0; j < end; j++) {
+                v += ary[pa + r * n + j] * ary[pb + j * m + c];
+            }
+            ary[pb + r * m + c] -= v;
+        }
+    }
+
+    /**
+     * triangular solve with unit U. (TRSM)
+     * <pre>
+     * U X = B is solved in place (b is overwritten by X).
+     * U is the upper triangle of in, diagonal components are 1 and ignored
+     * (the packed LU, or copyU()). The lower triangle is ignored.
+     *
+     * Blocked back substitution from the bottom block.
+     *  pass 2k   : diagonal block, X1 = U11^-1 B1 (one work item per col of b)
+     *  pass 2k+1 : update, B0 = B0 - U01 X X1 (one work item per element)
+     *
+     * paralles size : matrix size of b, passes : passesTrsm(in, nb)
+     * </pre>
+     * @param in U (n x n)
+     * @param b right-hand sides and output (n x m)
+     * @param nb block size
+     * @param pass pass of TRSM (0 .. passesTrsm(in, nb) - 1)
+     */
+    protected void matTrsmU(int in, int b, int nb, int pass) {
+
+        int i = getGlobalId();
+        int n = colSize[in];
+        int m = colSize[b];
+        int stage = pass % 2;
+        int end = n - (pass - stage) / 2 * nb;
+        int k0 = max(end - nb, 0);
+        int pa = offset[in];
+        int pb = offset[b];
+
+        if (0 == stage) {
+            // === diagonal block ===
+            if (i >= m) return;
+            for (int r = end - 2; r >= k0; r--) {
+                float v = ary[pb + r * m + i];
+                for (int j = r + 1; j < end; j++) {
+                    v -= ary[pa + r * n + j] * ary[pb + j * m + i];
+                }
+                ary[pb + r * m + i] = v;
+            }
+        } else {
+            // === update rows above ===
+            if (i >= k0 * m) return;
+            int c = i % m;
+            int r = (i - c) / m;
+            float v = 0.0f;
+            for (int j = k0; j < end; j++) {
+                v += ary[pa + r * n + j] * ary[pb + j * m + c];
+            }
+            ary[pb + r * m + c] -= v;
+        }
+    }
+
     /**
      * calculate hadamard product.
      * <pre>
@@ -410,7 +2183,7 @@ public abstract class MatKernel extends Kernel {
     protected void matHmul(int in1, int in2, int out) {
 
         int i = getGlobalId();
-        if (i > matSize[out]) return;
+        if (i >= matSize[out]) return;
 
         int p0 = offset[out] + i;
         int p1 = offset[in1] + i;
@@ -434,7 +2207,7 @@ public abstract class MatKernel extends Kernel {
     protected void matTranspose(int in, int out) {
 
         int i = getGlobalId();
-        if (i > matSize[out]) return;
+        if (i >= matSize[out]) return;
 
         int c0 = colSize[out];
         int c1 = colSize[in];
@@ -470,7 +2243,7 @@ public abstract class MatKernel extends Kernel {
     protected void matSortCol(int in, int out, int[] order) {
 
         int i = getGlobalId();
-        if (i > matSize[out]) return;
+        if (i >= matSize[out]) return;
 
         int c0 = colSize[out];
         int c1 = colSize[in];
@@ -506,7 +2279,7 @@ public abstract class MatKernel extends Kernel {
     protected void matSortRow(int in, int out, int[] order) {
 
         int i = getGlobalId();
-        if (i > matSize[out]) return;
+        if (i >= matSize[out]) return;
 
         int c0 = colSize[out];
         int c1 = colSize[in];
@@ -520,6 +2293,161 @@ public abstract class MatKernel extends Kernel {
         ary[p0] = ary[p1];
     }
 
+    /**
+     * sparse x dense vector (SpMV).
+     * <pre>
+     * in1 (CSR)   in2    out
+     * |a 0 b|     |A|    |aA+bC|
+     * |0 c 0|  X  |B| -> |cB   |
+     * |0 0 d|     |C|    |dC   |
+     *
+     * Only non-zero elements of in1 are multiplied.
+     * 
+     * paralles size : row size of in1
+     * </pre>
+     * @param in1 input1 (sparse)
+     * @param in2 input2 (vector)
+     * @param out output (vector)
+     */
+    protected void matSpMV(int in1, int in2, int out) {
+
+        int row = getGlobalId();
+        int rows = rowSize[in1];
+        if (row >= rows) return;
+
+        int pPtr = idxOffset[in1] + row;
+        int pCol = idxOffset[in1] + rows + 1;
+
+        float mul = 0.0f;
+        for (int k = idx[pPtr]; k < idx[pPtr + 1]; k++) {
+            mul += ary[offset[in1] + k] * ary[offset[in2] + idx[pCol + k]];
+        }
+        ary[offset[out] + row] = mul;
+    }
+
+    /**
+     * sparse x dense multiple (SpMM).
+     * <pre>
+     * in1 (CSR)   in2        out
+     * |a 0 b|     |A B C|    |aA+bG aB+bH aC+bI|
+     * |0 c 0|  X  |D E F| -> |cD    cE    cF   |
+     * |0 0 d|     |G H I|    |dG    dH    dI   |
+     *
+     * Only non-zero elements of in1 are multiplied.
+     * 
+     * paralles size : matrix size of out (= row * col)
+     * </pre>
+     * @param in1 input1 (sparse)
+     * @param in2 input2 (dense)
+     * @param out output (dense)
+     */
+    protected void matSpMul(int in1, int in2, int out) {
+
+        int i = getGlobalId();
+        if (i >= matSize[out]) return;
+
+        int c0 = colSize[out];
+        int c2 = colSize[in2];
+        int rows = rowSize[in1];
+
+        int col = i % c0;
+        int row = (i - col) / c0;
+
+        int pPtr = idxOffset[in1] + row;
+        int pCol = idxOffset[in1] + rows + 1;
+
+        float mul = 0.0f;
+        for (int k = idx[pPtr]; k < idx[pPtr + 1]; k++) {
+            mul += ary[offset[in1] + k] * ary[offset[in2] + c2 * idx[pCol + k] + col];
+        }
+        ary[offset[out] + i] = mul;
+    }
+
+    /**
+     * sparse + dense add.
+     * <pre>
+     * in1 (CSR)   in2        out
+     * |a 0 b|     |A B C|    |a+A B   b+C|
+     * |0 c 0|  +  |D E F| -> |D   c+E F  |
+     * |0 0 d|     |G H I|    |G   H   d+I|
+     * 
+     * paralles size : row size of in1
+     * </pre>
+     * @param in1 input1 (sparse)
+     * @param in2 input2 (dense)
+     * @param out output (dense)
+     */
+    protected void matSpAdd(int in1, int in2, int out) {
+
+        int row = getGlobalId();
+        int c1 = colSize[in1];
+        int rows = rowSize[in1];
+        if (row >= rows) return;
+
+        int p0 = offset[out] + c1 * row;
+        int p2 = offset[in2] + c1 * row;
+        for (int col = 0; col < c1; col++) {
+            ary[p0 + col] = ary[p2 + col];
+        }
+
+        int pPtr = idxOffset[in1] + row;
+        int pCol = idxOffset[in1] + rows + 1;
+        for (int k = idx[pPtr]; k < idx[pPtr + 1]; k++) {
+            ary[p0 + idx[pCol + k]] += ary[offset[in1] + k];
+        }
+    }
+
+    /**
+     * sparse hadamard product.
+     * <pre>
+     * in1 (CSR)   in2        out (CSR)
+     * |a 0 b|     |A B C|    |aA 0  bC|
+     * |0 c 0|  O  |D E F| -> |0  cE 0 |
+     * |0 0 d|     |G H I|    |0  0  dI|
+     *
+     * out must have the same non-zero structure as in1.
+     * (ex. in1.copyAll())
+     * 
+     * paralles size : row size of in1
+     * </pre>
+     * @param in1 input1 (sparse)
+     * @param in2 input2 (dense)
+     * @param out output (sparse)
+     */
+    protected void matSpHmul(int in1, int in2, int out) {
+
+        int row = getGlobalId();
+        int c2 = colSize[in2];
+        int rows = rowSize[in1];
+        if (row >= rows) return;
+
+        int pPtr = idxOffset[in1] + row;
+        int pCol = idxOffset[in1] + rows + 1;
+        for (int k = idx[pPtr]; k < idx[pPtr + 1]; k++) {
+            ary[offset[out] + k] = ary[offset[in1] + k] * ary[offset[in2] + c2 * row + idx[pCol + k]];
+        }
+    }
+
+    /**
+     * sparse ReLU (Rectified linear unit).
+     * <pre>
+     * ReLu(0) = 0, so only non-zero elements are calculated.
+     * out must have the same non-zero structure as in.
+     * (ex. in.copyAll())
+     * 
+     * paralles size : non-zero size of in (= in.getSize())
+     * </pre>
+     * @param in input (sparse)
+     * @param out output (sparse)
+     */
+    protected void matSpReLu(int in, int out) {
+
+        int k = getGlobalId();
+        if (k >= matSize[in]) return;
+
+        ary[offset[out] + k] = max(ary[offset[in] + k], 0.0f);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -533,9 +2461,8 @@ public abstract class MatKernel extends Kernel {
             sb.append(String.format("%d ", val));
         }
         sb.append("\nrow size:\n");
-        int cnt = 0;
-        for (int val : matSize) {
-            sb.append(String.format("%d ", val / colSize[cnt++]));
+        for (int val : rowSize) {
+            sb.append(String.format("%d ", val));
         }
         sb.append("\ncol size:\n");
         for (int val : colSize) {
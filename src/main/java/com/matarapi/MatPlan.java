@@ -0,0 +1,409 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import com.aparapi.Range;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Execution plan of matrix expressions.
+ * <pre>
+ * compile() plans everything once:
+ * - execution order of the DAG,
+ * - workspace layout (work areas of intermediate results are reused
+ *   after their last use),
+ * - fusion of elementwise chains into one pass (see MatFusion),
+ *   including the GEMM epilogue (ex. ReLu(x X w + b) is one step),
+ * - execution range of each step (matMulTiled for big products).
+ *
+ * run() only executes the steps. The kernel runs in explicit mode,
+ * so only the inputs set after the last run are transferred,
+ * and the workspace is read back only when a result is read.
+ * The kernel is compiled by Aparapi at the first run,
+ * and following runs reuse it without re-planning or re-allocation.
+ *
+ * When the kernel runs on the Fork-Join engine, products are calculated
+ * by MatSimd and the other steps by MatForkJoin.
+ * </pre>
+ * @author a.ho
+ */
+public final class MatPlan {
+
+    /**
+     * kernel which executes steps.
+     */
+    static class PlanKernel extends MatKernel {
+
+        static final int MUL = 0;
+        static final int MUL_TILED = 1;
+        static final int TRANSPOSE = 2;
+        static final int FUSED = 3;
+        static final int STEP_SIZE = 4;
+
+        /**
+         * steps. |op arg0 arg1 arg2| per step.
+         */
+        protected int[] steps = new int[STEP_SIZE];
+        /**
+         * current step.
+         */
+        protected int step;
+
+        PlanKernel(final IMatrix ...data) {
+            super(data);
+        }
+
+        @Override
+        public void run() {
+            int s = step * STEP_SIZE;
+            int op = steps[s];
+            // Can't use switch statement on Aparapi.
+            if (MUL == op) {
+                matMul(steps[s + 1], steps[s + 2], steps[s + 3]);
+            } else if (MUL_TILED == op) {
+                matMulTiled(steps[s + 1], steps[s + 2], steps[s + 3]);
+            } else if (TRANSPOSE == op) {
+                matTranspose(steps[s + 1], steps[s + 2]);
+            } else if (FUSED == op) {
+                matFused(steps[s + 1]);
+            }
+        }
+    }
+
+    private final PlanKernel kernel;
+    private final Map<MatExpr, Integer> slots;
+    private final Range[] ranges;
+
+    private MatPlan(final PlanKernel kernel, final Map<MatExpr, Integer> slots, final Range[] ranges) {
+        this.kernel = kernel;
+        this.slots = slots;
+        this.ranges = ranges;
+    }
+
+    /**
+     * compile expressions.
+     * @param outputs output expressions
+     * @return execution plan
+     */
+    public static MatPlan compile(final MatExpr ...outputs) {
+        return new Planner(outputs).plan();
+    }
+
+    /**
+     * set input value.
+     * @param input input expression
+     * @param value value (same size as input)
+     * @return this plan
+     */
+    public MatPlan set(final MatExpr input, final IMatrix value) {
+        if (MatExpr.Op.INPUT != input.op) {
+            throw new IllegalArgumentException("not an input.");
+        }
+        if (input.getRowSize() != value.getRowSize() || input.getColSize() != value.getColSize()
+                || value.getSize() != input.getRowSize() * input.getColSize()) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        kernel.setMat(slot(input), value);
+        return this;
+    }
+
+    /**
+     * execute plan.
+     * @return this plan
+     */
+    public MatPlan run() {
+        boolean host = kernel.isForkJoin();
+        if (host) {
+            kernel.download();
+        } else if (!kernel.isExplicit()) {
+            kernel.setExplicit(true);
+            kernel.put(kernel.steps);
+        }
+        for (int s = 0; s < ranges.length; s++) {
+            int p = s * PlanKernel.STEP_SIZE;
+            int op = kernel.steps[p];
+            if (host && (PlanKernel.MUL == op || PlanKernel.MUL_TILED == op)) {
+                MatSimd.matMul(kernel, kernel.steps[p + 1], kernel.steps[p + 2], kernel.steps[p + 3]);
+                continue;
+            }
+            kernel.step = s;
+            kernel.execute(ranges[s]);
+        }
+        return this;
+    }
+
+    /**
+     * get result.
+     * @param expr output (or input) expression
+     * @return Matrix
+     */
+    public Matrix get(final MatExpr expr) {
+        return kernel.getMat(slot(expr));
+    }
+
+    /**
+     * get result into existing Matrix.
+     * @param expr output (or input) expression
+     * @param target output matrix
+     * @return target
+     */
+    public Matrix getInto(final MatExpr expr, final Matrix target) {
+        return kernel.getMatInto(slot(expr), target);
+    }
+
+    /**
+     * get kernel.
+     * <pre>
+     * ex. getKernel().setEngine(MatKernel.Engine.AUTO)
+     * </pre>
+     * @return kernel
+     */
+    public MatKernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * number of steps.
+     * @return number of kernel executions per run()
+     */
+    public int getStepSize() {
+        return ranges.length;
+    }
+
+    private int slot(final MatExpr expr) {
+        Integer no = slots.get(expr);
+        if (null == no) {
+            throw new IllegalArgumentException("the expression is not an input or output of this plan.");
+        }
+        return no;
+    }
+
+    /**
+     * planner.
+     */
+    private static final class Planner {
+
+        private final Set<MatExpr> outputs = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final List<MatExpr> order = new ArrayList<>();
+        private final Map<MatExpr, Integer> refs = new IdentityHashMap<>();
+        private final Map<MatExpr, Boolean> fused = new IdentityHashMap<>();
+
+        private final List<IMatrix> areas = new ArrayList<>();
+        private final Map<MatExpr, Integer> slots = new IdentityHashMap<>();
+        private final Map<String, Deque<Integer>> free = new HashMap<>();
+
+        Planner(final MatExpr ...outputs) {
+            Collections.addAll(this.outputs, outputs);
+            for (MatExpr out : outputs) {
+                visit(out);
+            }
+        }
+
+        /**
+         * topological sort (post order) and reference count.
+         */
+        private void visit(final MatExpr e) {
+            if (refs.containsKey(e)) {
+                return;
+            }
+            refs.put(e, 0);
+            if (null != e.a) {
+                visit(e.a);
+                refs.put(e.a, refs.get(e.a) + 1);
+            }
+            if (null != e.b) {
+                visit(e.b);
+                refs.put(e.b, refs.get(e.b) + 1);
+            }
+            order.add(e);
+        }
+
+        /**
+         * e is calculated in the chain of its consumer or not.
+         * <pre>
+         * e is fused when it is used only once as the left operand
+         * of an elementwise operation, and it is not an output.
+         * </pre>
+         */
+        private boolean isFused(final MatExpr e) {
+            Boolean f = fused.get(e);
+            return null != f && f;
+        }
+
+        private void markFused() {
+            for (MatExpr e : order) {
+                if (!e.op.isElementwise()) {
+                    continue;
+                }
+                MatExpr x = e.a;
+                if ((x.op.isElementwise() || MatExpr.Op.MUL == x.op)
+                        && 1 == refs.get(x) && !outputs.contains(x)) {
+                    fused.put(x, true);
+                }
+            }
+        }
+
+        MatPlan plan() {
+            markFused();
+
+            // === inputs and outputs have fixed work areas ===
+            for (MatExpr e : order) {
+                if (MatExpr.Op.INPUT == e.op || outputs.contains(e)) {
+                    slots.put(e, alloc(e, false));
+                }
+            }
+
+            // === steps ===
+            List<int[]> steps = new ArrayList<>();
+            List<List<MatExpr>> reads = new ArrayList<>();
+            List<MatExpr> writes = new ArrayList<>();
+            for (MatExpr e : order) {
+                if (MatExpr.Op.INPUT == e.op || isFused(e)) {
+                    continue;
+                }
+                List<MatExpr> read = new ArrayList<>();
+                if (MatExpr.Op.MUL == e.op) {
+                    read.add(e.a);
+                    read.add(e.b);
+                    steps.add(new int[]{PlanKernel.MUL});
+                } else if (MatExpr.Op.TRANSPOSE == e.op) {
+                    read.add(e.a);
+                    steps.add(new int[]{PlanKernel.TRANSPOSE});
+                } else {
+                    // walk down the chain
+                    Deque<MatExpr> chain = new ArrayDeque<>();
+                    MatExpr x = e;
+                    while (x == e || (isFused(x) && x.op.isElementwise())) {
+                        chain.push(x);
+                        x = x.a;
+                    }
+                    if (isFused(x)) {
+                        // GEMM epilogue
+                        read.add(x.a);
+                        read.add(x.b);
+                    } else {
+                        read.add(x);
+                    }
+                    for (MatExpr c : chain) {
+                        if (null != c.b) {
+                            read.add(c.b);
+                        }
+                    }
+                    steps.add(new int[]{PlanKernel.FUSED});
+                }
+                reads.add(read);
+                writes.add(e);
+            }
+
+            // === workspace layout ===
+            Map<MatExpr, Integer> lastUse = new IdentityHashMap<>();
+            for (int s = 0; s < reads.size(); s++) {
+                for (MatExpr r : reads.get(s)) {
+                    lastUse.put(r, s);
+                }
+            }
+            for (int s = 0; s < writes.size(); s++) {
+                MatExpr w = writes.get(s);
+                if (!slots.containsKey(w)) {
+                    slots.put(w, alloc(w, true));
+                }
+                for (MatExpr r : reads.get(s)) {
+                    // an operand can be read twice by one step (ex. t.hmul(t)),
+                    // so remove it to release the slot only once.
+                    if (lastUse.remove(r, s) && MatExpr.Op.INPUT != r.op && !outputs.contains(r)) {
+                        release(r);
+                    }
+                }
+            }
+
+            PlanKernel kernel = new PlanKernel(areas.toArray(new IMatrix[0]));
+            kernel.steps = new int[Math.max(1, writes.size()) * PlanKernel.STEP_SIZE];
+            Range[] ranges = new Range[writes.size()];
+            for (int s = 0; s < writes.size(); s++) {
+                MatExpr e = writes.get(s);
+                int out = slots.get(e);
+                int p = s * PlanKernel.STEP_SIZE;
+                int op = steps.get(s)[0];
+                if (PlanKernel.MUL == op) {
+                    int tile = kernel.getTile();
+                    if (e.getRowSize() >= tile && e.getColSize() >= tile && e.a.getColSize() >= tile) {
+                        op = PlanKernel.MUL_TILED;
+                        ranges[s] = kernel.rangeTiled(out);
+                    } else {
+                        ranges[s] = Range.create(e.getRowSize() * e.getColSize());
+                    }
+                    kernel.steps[p + 1] = slots.get(e.a);
+                    kernel.steps[p + 2] = slots.get(e.b);
+                    kernel.steps[p + 3] = out;
+                } else if (PlanKernel.TRANSPOSE == op) {
+                    ranges[s] = Range.create(e.getRowSize() * e.getColSize());
+                    kernel.steps[p + 1] = slots.get(e.a);
+                    kernel.steps[p + 2] = out;
+                } else {
+                    ranges[s] = Range.create(e.getRowSize() * e.getColSize());
+                    kernel.steps[p + 1] = kernel.fuse(chain(e, out));
+                }
+                kernel.steps[p] = op;
+            }
+
+            return new MatPlan(kernel, slots, ranges);
+        }
+
+        /**
+         * build fused chain of e.
+         */
+        private MatFusion chain(final MatExpr e, final int out) {
+            Deque<MatExpr> chain = new ArrayDeque<>();
+            MatExpr x = e;
+            while (x == e || (isFused(x) && x.op.isElementwise())) {
+                chain.push(x);
+                x = x.a;
+            }
+            MatFusion f = isFused(x)
+                    ? MatFusion.mul(slots.get(x.a), slots.get(x.b))
+                    : MatFusion.load(slots.get(x));
+            for (MatExpr c : chain) {
+                if (MatExpr.Op.ADD == c.op) {
+                    f.add(slots.get(c.b));
+                } else if (MatExpr.Op.SUB == c.op) {
+                    f.sub(slots.get(c.b));
+                } else if (MatExpr.Op.HMUL == c.op) {
+                    f.hmul(slots.get(c.b));
+                } else if (MatExpr.Op.RELU == c.op) {
+                    f.reLu();
+                } else if (MatExpr.Op.DRELU == c.op) {
+                    f.dReLu();
+                }
+            }
+            return f.into(out);
+        }
+
+        private static String shape(final MatExpr e) {
+            return e.getRowSize() + "x" + e.getColSize();
+        }
+
+        private int alloc(final MatExpr e, final boolean reuse) {
+            if (reuse) {
+                Deque<Integer> q = free.get(shape(e));
+                if (null != q && !q.isEmpty()) {
+                    return q.pop();
+                }
+            }
+            areas.add(new MockMatrix(e.getRowSize(), e.getColSize()));
+            return areas.size() - 1;
+        }
+
+        private void release(final MatExpr e) {
+            free.computeIfAbsent(shape(e), k -> new ArrayDeque<>()).push(slots.get(e));
+        }
+    }
+}
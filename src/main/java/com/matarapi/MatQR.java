@@ -0,0 +1,338 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Householder QR decomposition and least squares.
+ * <pre>
+ * A = Q R (A : m x n, m &gt;= n, R : n x n upper triangle)
+ *
+ * Matrix r = MatQR.r(a);
+ * Matrix x = MatQR.leastSquares(a, b);   // min |A X - B|
+ *
+ * For a tall matrix, TSQR (tall skinny QR) is used.
+ * 1. rows are split into blocks, and each block is factorized
+ *    in parallel on the shared ForkJoinPool.
+ * 2. R of two blocks are stacked and factorized again,
+ *    as a binary tree, until one R remains.
+ * Each factorization is a blocked Householder QR
+ * with the compact WY form (H1 H2 .. Hk = I - V T V^T),
+ * so the trailing matrix is updated with matrix products.
+ *
+ * Q is not formed. The least squares is solved by TSQR of [A B]:
+ * |R11 R12|
+ * |0   R22|  X = R11^-1 R12
+ * A must have full col rank.
+ *
+ * On the kernel, use MatKernel.matQR. It is the unblocked
+ * column-by-column Householder QR (one reflector per col, applied
+ * with matrix-vector products), not TSQR nor the compact WY form.
+ * </pre>
+ * @author a.ho
+ */
+public final class MatQR {
+
+    /**
+     * block size (cols) of the compact WY form.
+     */
+    private static final int NB = 32;
+
+    private MatQR() {
+    }
+
+    /**
+     * R of QR decomposition.
+     * @param a matrix (m x n, m &gt;= n, not changed)
+     * @return R (n x n)
+     */
+    public static Matrix r(final Matrix a) {
+        int n = a.getColSize();
+        float[] r = tsqr(a, null);
+        return new Matrix(r, 0, n, n);
+    }
+
+    /**
+     * least squares. min |A X - B|
+     * @param a matrix (m x n, m &gt;= n, full col rank, not changed)
+     * @param b right-hand sides (m x k, not changed)
+     * @return X (n x k)
+     */
+    public static Matrix leastSquares(final Matrix a, final Matrix b) {
+        if (a.getRowSize() != b.getRowSize()) {
+            throw new IllegalArgumentException("row size mismatch.");
+        }
+        int n = a.getColSize();
+        int k = b.getColSize();
+        int w = n + k;
+        float[] r = tsqr(a, b);
+
+        // === R11 X = R12 ===
+        Matrix x = new Matrix(n, k);
+        float[] px = x.getAry();
+        for (int i = n - 1; i >= 0; i--) {
+            for (int c = 0; c < k; c++) {
+                float v = r[i * w + n + c];
+                for (int j = i + 1; j < n; j++) {
+                    v -= r[i * w + j] * px[j * k + c];
+                }
+                px[i * k + c] = v / r[i * w + i];
+            }
+        }
+        return x;
+    }
+
+    /**
+     * R of [a b] by TSQR.
+     */
+    private static float[] tsqr(final Matrix a, final Matrix b) {
+        int m = a.getRowSize();
+        int w = a.getColSize() + (null == b ? 0 : b.getColSize());
+        if (m < a.getColSize()) {
+            throw new IllegalArgumentException("row size must be col size or more.");
+        }
+        int grain = Math.max(2 * w, MatForkJoin.grain(m));
+        return MatForkJoin.getPool().invoke(new Tsqr(a, b, w, 0, m, grain));
+    }
+
+    /**
+     * node of TSQR tree.
+     */
+    private static final class Tsqr extends RecursiveTask<float[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Matrix a;
+        private final Matrix b;
+        private final int w;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Tsqr(final Matrix a, final Matrix b, final int w, final int from, final int to, final int grain) {
+            this.a = a;
+            this.b = b;
+            this.w = w;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected float[] compute() {
+            if (to - from <= grain) {
+                return leaf();
+            }
+            int mid = (from + to) >>> 1;
+            Tsqr left = new Tsqr(a, b, w, from, mid, grain);
+            left.fork();
+            float[] r2 = new Tsqr(a, b, w, mid, to, grain).compute();
+            float[] r1 = left.join();
+
+            // === stack two R and factorize again ===
+            float[] buf = new float[2 * w * w];
+            System.arraycopy(r1, 0, buf, 0, w * w);
+            System.arraycopy(r2, 0, buf, w * w, w * w);
+            factor(buf, 2 * w, w, new float[w]);
+            return upperR(buf, 2 * w, w);
+        }
+
+        private float[] leaf() {
+            int rows = to - from;
+            int n = a.getColSize();
+            float[] buf = new float[rows * w];
+            float[] pa = a.getAry();
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(pa, (from + r) * n, buf, r * w, n);
+            }
+            if (null != b) {
+                int k = b.getColSize();
+                float[] pb = b.getAry();
+                for (int r = 0; r < rows; r++) {
+                    System.arraycopy(pb, (from + r) * k, buf, r * w + n, k);
+                }
+            }
+            factor(buf, rows, w, new float[Math.min(rows, w)]);
+            return upperR(buf, rows, w);
+        }
+    }
+
+    /**
+     * upper triangle (w x w) of a factorized block.
+     */
+    private static float[] upperR(final float[] a, final int m, final int w) {
+        float[] r = new float[w * w];
+        for (int i = 0; i < Math.min(m, w); i++) {
+            System.arraycopy(a, i * w + i, r, i * w + i, w - i);
+        }
+        return r;
+    }
+
+    /**
+     * blocked Householder QR in place.
+     * <pre>
+     * a (m x w, row-major) is overwritten by R (upper triangle)
+     * and Householder vectors V (below diagonal, V[j][j] = 1 is omitted).
+     * H(j) = I - tau[j] v(j) v(j)^T
+     * </pre>
+     * @param a matrix
+     * @param m row size
+     * @param w col size
+     * @param tau scalar factors (min(m, w))
+     */
+    static void factor(final float[] a, final int m, final int w, final float[] tau) {
+        int kmax = Math.min(m, w);
+        float[] t = new float[NB * NB];
+        float[] work = new float[NB * w];
+        for (int k0 = 0; k0 < kmax; k0 += NB) {
+            int kb = Math.min(NB, kmax - k0);
+            int end = k0 + kb;
+
+            // === panel (unblocked) ===
+            for (int j = k0; j < end; j++) {
+                reflector(a, m, w, j, tau);
+                apply(a, m, w, j, tau[j], j + 1, end, work);
+            }
+            if (end >= w) {
+                continue;
+            }
+
+            // === trailing matrix by compact WY ===
+            buildT(a, m, w, k0, kb, tau, t);
+            applyBlock(a, m, w, k0, kb, t, end, work);
+        }
+    }
+
+    /**
+     * generate H(j) which eliminates a[j+1:, j].
+     */
+    private static void reflector(final float[] a, final int m, final int w, final int j, final float[] tau) {
+        double sigma = 0.0;
+        for (int i = j + 1; i < m; i++) {
+            float v = a[i * w + j];
+            sigma += v * v;
+        }
+        if (sigma == 0.0) {
+            tau[j] = 0.0f;
+            return;
+        }
+        double alpha = a[j * w + j];
+        double norm = Math.sqrt(alpha * alpha + sigma);
+        double beta = alpha <= 0.0 ? norm : -norm;
+        tau[j] = (float) ((beta - alpha) / beta);
+        float scale = (float) (1.0 / (alpha - beta));
+        for (int i = j + 1; i < m; i++) {
+            a[i * w + j] *= scale;
+        }
+        a[j * w + j] = (float) beta;
+    }
+
+    /**
+     * apply H(j) to cols [c0, c1).
+     */
+    private static void apply(final float[] a, final int m, final int w, final int j, final float tau,
+            final int c0, final int c1, final float[] work) {
+        if (tau == 0.0f || c0 >= c1) {
+            return;
+        }
+        // work = v^T C
+        System.arraycopy(a, j * w + c0, work, c0, c1 - c0);
+        for (int i = j + 1; i < m; i++) {
+            float v = a[i * w + j];
+            int p = i * w;
+            for (int c = c0; c < c1; c++) {
+                work[c] += v * a[p + c];
+            }
+        }
+        // C = C - tau v work
+        for (int c = c0; c < c1; c++) {
+            a[j * w + c] -= tau * work[c];
+        }
+        for (int i = j + 1; i < m; i++) {
+            float v = tau * a[i * w + j];
+            int p = i * w;
+            for (int c = c0; c < c1; c++) {
+                a[p + c] -= v * work[c];
+            }
+        }
+    }
+
+    /**
+     * triangular factor T of H(k0) .. H(k0+kb-1) = I - V T V^T.
+     */
+    private static void buildT(final float[] a, final int m, final int w, final int k0, final int kb,
+            final float[] tau, final float[] t) {
+        for (int i = 0; i < kb; i++) {
+            int ci = k0 + i;
+            t[i * NB + i] = tau[ci];
+            // z = V(:, 0:i)^T v(i)
+            for (int p = 0; p < i; p++) {
+                float z = a[ci * w + k0 + p];
+                for (int r = ci + 1; r < m; r++) {
+                    z += a[r * w + k0 + p] * a[r * w + ci];
+                }
+                t[p * NB + i] = z;
+            }
+            // T(0:i, i) = -tau T(0:i, 0:i) z
+            for (int p = 0; p < i; p++) {
+                float v = 0.0f;
+                for (int q = p; q < i; q++) {
+                    v += t[p * NB + q] * t[q * NB + i];
+                }
+                // t[q][i] (q >= p) is still z[q]
+                t[p * NB + i] = -tau[ci] * v;
+            }
+        }
+    }
+
+    /**
+     * apply (I - V T V^T)^T to the trailing cols [c0, w).
+     */
+    private static void applyBlock(final float[] a, final int m, final int w, final int k0, final int kb,
+            final float[] t, final int c0, final float[] work) {
+        int nc = w - c0;
+        // === W = V^T C ===
+        Arrays.fill(work, 0, kb * w, 0.0f);
+        for (int r = k0; r < m; r++) {
+            int pr = r * w;
+            int pmax = Math.min(kb - 1, r - k0);
+            for (int p = 0; p <= pmax; p++) {
+                float v = r == k0 + p ? 1.0f : a[pr + k0 + p];
+                int pw = p * w;
+                for (int c = c0; c < w; c++) {
+                    work[pw + c] += v * a[pr + c];
+                }
+            }
+        }
+        // === W = T^T W ===
+        for (int p = kb - 1; p >= 0; p--) {
+            int pw = p * w;
+            float d = t[p * NB + p];
+            for (int c = c0; c < w; c++) {
+                work[pw + c] *= d;
+            }
+            for (int q = 0; q < p; q++) {
+                float tq = t[q * NB + p];
+                int qw = q * w;
+                for (int c = c0; c < w; c++) {
+                    work[pw + c] += tq * work[qw + c];
+                }
+            }
+        }
+        // === C = C - V W ===
+        for (int r = k0; r < m; r++) {
+            int pr = r * w;
+            int pmax = Math.min(kb - 1, r - k0);
+            for (int p = 0; p <= pmax; p++) {
+                float v = r == k0 + p ? 1.0f : a[pr + k0 + p];
+                int pw = p * w;
+                for (int c = c0; c < w; c++) {
+                    a[pr + c] -= v * work[pw + c];
+                }
+            }
+        }
+    }
+}
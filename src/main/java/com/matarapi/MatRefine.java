@@ -0,0 +1,246 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Mixed-precision iterative refinement.
+ * <pre>
+ * A X = B is solved with LU of A in float, and the solution is
+ * refined with residuals in double.
+ *  1. X = (LU)^-1 B               float
+ *  2. R = B - A X                 double
+ *  3. D = (LU)^-1 R               float (R is scaled to avoid underflow)
+ *  4. X = X + D                   double, back to 2.
+ * The factorization (O(n^3)) is done once in float, and each step of
+ * refinement costs O(n^2). While cond(A) is well below 1 / u(float),
+ * X converges to the accuracy of double.
+ *
+ * MatRefine ref = new MatRefine(a);     // Matrix.toLU()
+ * double[] x = ref.solve(b);            // b, x : n x m, row-major
+ *
+ * LU of MatFactorCache or MatKernel.matLU can be used as well.
+ * (the pivot order of matLU is the same as Matrix.toLU())
+ * MatRefine ref = new MatRefine(a, lu, order);
+ *
+ * The refinement stops when the residual is small enough
+ *   max|R| &lt;= sqrt(n) eps(double) |A|inf max|X|
+ * or when a correction does not shrink to half of the previous one.
+ * (cond(A) is too large for float LU, isConverged() is false)
+ * In the latter case, the rejected correction is not applied.
+ * A is not copied and must not be changed while it is used.
+ * </pre>
+ * @author a.ho
+ */
+public final class MatRefine {
+
+    /**
+     * unit roundoff of double.
+     */
+    private static final double EPS = Math.ulp(1.0) / 2.0;
+
+    /**
+     * min rows per task of residual.
+     */
+    private static final int GRAIN = 16;
+
+    private final Matrix a;
+    private final Matrix lu;
+    private final int[] order;
+    private final int n;
+    /**
+     * |A|inf (max row sum).
+     */
+    private final double norm;
+    private int maxIterations = 10;
+    private int iterations;
+    private boolean converged;
+
+    /**
+     * Constructor. (LU by Matrix.toLU())
+     * @param a square matrix (not changed)
+     * @throws ExecutionException see Matrix.toLU()
+     */
+    public MatRefine(final Matrix a) throws ExecutionException {
+        this(a, factor(a));
+    }
+
+    /**
+     * Constructor.
+     * @param a square matrix (not changed)
+     * @param lu LU of a (see MatFactorCache.lu())
+     */
+    public MatRefine(final Matrix a, final MatFactorCache.LU lu) {
+        this(a, lu.getLU(), lu.getOrder());
+    }
+
+    /**
+     * Constructor.
+     * @param a square matrix (not changed)
+     * @param lu packed LU of a (see Matrix.toLU())
+     * @param order sort order by pivotting
+     */
+    public MatRefine(final Matrix a, final Matrix lu, final int[] order) {
+        this.n = a.getColSize();
+        if (a.getRowSize() != n || lu.getRowSize() != n || lu.getColSize() != n || order.length != n) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        this.a = a;
+        this.lu = lu;
+        this.order = order;
+        double max = 0.0;
+        float[] pa = a.getAry();
+        for (int r = 0; r < n; r++) {
+            double sum = 0.0;
+            for (int c = 0; c < n; c++) {
+                sum += Math.abs(pa[r * n + c]);
+            }
+            max = Math.max(max, sum);
+        }
+        this.norm = max;
+    }
+
+    private static MatFactorCache.LU factor(final Matrix a) throws ExecutionException {
+        Matrix lu = a.copyAll();
+        int[] order = lu.toLU();
+        return new MatFactorCache.LU(lu, order);
+    }
+
+    public void setMaxIterations(final int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * number of refinement steps of the last solve.
+     * @return iterations
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * the last solve reached the accuracy of double or not.
+     * @return true if converged
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+
+    /**
+     * solve A X = B.
+     * @param b right-hand sides (n x m, not changed)
+     * @return X rounded to float (n x m)
+     */
+    public Matrix solve(final Matrix b) {
+        float[] pb = b.getAry();
+        double[] db = new double[pb.length];
+        for (int cnt = 0; cnt < pb.length; cnt++) {
+            db[cnt] = pb[cnt];
+        }
+        double[] x = solve(db);
+        Matrix out = new Matrix(b.getRowSize(), b.getColSize());
+        float[] px = out.getAry();
+        for (int cnt = 0; cnt < x.length; cnt++) {
+            px[cnt] = (float) x[cnt];
+        }
+        out.markDirty();
+        return out;
+    }
+
+    /**
+     * solve A X = B in double.
+     * @param b right-hand sides (n x m, row-major, not changed)
+     * @return X (n x m, row-major)
+     */
+    public double[] solve(final double[] b) {
+        if (b.length == 0 || b.length % n != 0) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        final int m = b.length / n;
+        double[] x = new double[b.length];
+        double[] r = b.clone();
+        Matrix rf = new Matrix(n, m);
+        Matrix d = new Matrix(n, m);
+
+        double prev = Double.MAX_VALUE;
+        iterations = 0;
+        converged = false;
+        for (int step = 0;; step++) {
+            // === D = (LU)^-1 R ===
+            double scale = max(r);
+            if (scale == 0.0) {
+                converged = true;
+                break;
+            }
+            if (step > 0) {
+                if (scale <= Math.sqrt(n) * EPS * norm * max(x)) {
+                    converged = true;
+                    break;
+                }
+                if (step > maxIterations) {
+                    break;
+                }
+                iterations = step;
+            }
+            float[] pr = rf.getAry();
+            for (int cnt = 0; cnt < pr.length; cnt++) {
+                pr[cnt] = (float) (r[cnt] / scale);
+            }
+            rf.markDirty();
+            MatSolver.solveLU(lu, order, rf, d);
+
+            // === X = X + D ===
+            float[] pd = d.getAry();
+            double dmax = 0.0;
+            for (int cnt = 0; cnt < x.length; cnt++) {
+                dmax = Math.max(dmax, Math.abs(pd[cnt] * scale));
+            }
+            if (step > 0 && dmax > 0.5 * prev) {
+                // not converging. cond(A) is too large.
+                // keep the previous X, D is not applied.
+                iterations = step - 1;
+                break;
+            }
+            for (int cnt = 0; cnt < x.length; cnt++) {
+                x[cnt] += pd[cnt] * scale;
+            }
+            prev = dmax;
+
+            // === R = B - A X ===
+            residual(b, x, r, m);
+        }
+        return x;
+    }
+
+    /**
+     * r = b - A x. (double)
+     */
+    private void residual(final double[] b, final double[] x, final double[] r, final int m) {
+        final float[] pa = a.getAry();
+        MatForkJoin.forRange(n, Math.max(GRAIN, MatForkJoin.grain(n)), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int pi = i * m;
+                for (int c = 0; c < m; c++) {
+                    r[pi + c] = b[pi + c];
+                }
+                for (int j = 0; j < n; j++) {
+                    double v = pa[i * n + j];
+                    int pj = j * m;
+                    for (int c = 0; c < m; c++) {
+                        r[pi + c] -= v * x[pj + c];
+                    }
+                }
+            }
+        });
+    }
+
+    private static double max(final double[] v) {
+        double max = 0.0;
+        for (double e : v) {
+            max = Math.max(max, Math.abs(e));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+/**
+ * Host (CPU) implementation of MatKernel operations.
+ * <pre>
+ * These methods calculate directly on the data array of a MatKernel
+ * without Kernel.execute(), in parallel on the shared pool of MatForkJoin.
+ *
+ * The loops are plain Java, written to be auto-vectorizable
+ * by the JIT (SuperWord):
+ * - simple counted loops on contiguous elements,
+ * - no method call in the loop body (ReLU uses Math.max, an intrinsic),
+ * - matMul is calculated in i-k-j order, so the inner loop is
+ *   out[row][j] += in1[row][k] * in2[k][j] on contiguous j.
+ * Whether SIMD instructions are used depends on the JVM and the CPU.
+ * There is no explicit vector code and no runtime ISA selection.
+ *
+ * The results are same as MatKernel methods of the same name,
+ * except the rounding order of matMul.
+ * In explicit mode, the data array is transferred from the device
+ * before the calculation, and marked dirty after it.
+ * (see MatKernel.download() and MatKernel.markDirty())
+ * </pre>
+ * @author a.ho
+ */
+public final class MatSimd {
+
+    /**
+     * min chunk size of elementwise operations.
+     */
+    private static final int MIN_GRAIN = 1 << 14;
+
+    /**
+     * block size of k loop of matMul. (in1 block + in2 block fit L2 cache)
+     */
+    private static final int BLOCK_K = 128;
+
+    private MatSimd() {
+    }
+
+    private static int grain(final int size) {
+        return Math.max(MIN_GRAIN, MatForkJoin.grain(size));
+    }
+
+    /**
+     * add.
+     * @param k kernel
+     * @param in1 input1
+     * @param in2 input2
+     * @param out output
+     * @see MatKernel#matAdd(int, int, int)
+     */
+    public static void matAdd(final MatKernel k, final int in1, final int in2, final int out) {
+        k.download();
+        final float[] ary = k.ary;
+        final int p0 = k.offset[out];
+        final int p1 = k.offset[in1];
+        final int p2 = k.offset[in2];
+        final int size = k.matSize[out];
+        MatForkJoin.forRange(size, grain(size), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                ary[p0 + i] = ary[p1 + i] + ary[p2 + i];
+            }
+        });
+        k.markDirty();
+    }
+
+    /**
+     * sub.
+     * @param k kernel
+     * @param in1 input1
+     * @param in2 input2
+     * @param out output
+     * @see MatKernel#matSub(int, int, int)
+     */
+    public static void matSub(final MatKernel k, final int in1, final int in2, final int out) {
+        k.download();
+        final float[] ary = k.ary;
+        final int p0 = k.offset[out];
+        final int p1 = k.offset[in1];
+        final int p2 = k.offset[in2];
+        final int size = k.matSize[out];
+        MatForkJoin.forRange(size, grain(size), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                ary[p0 + i] = ary[p1 + i] - ary[p2 + i];
+            }
+        });
+        k.markDirty();
+    }
+
+    /**
+     * hadamard product.
+     * @param k kernel
+     * @param in1 input1
+     * @param in2 input2
+     * @param out output
+     * @see MatKernel#matHmul(int, int, int)
+     */
+    public static void matHmul(final MatKernel k, final int in1, final int in2, final int out) {
+        k.download();
+        final float[] ary = k.ary;
+        final int p0 = k.offset[out];
+        final int p1 = k.offset[in1];
+        final int p2 = k.offset[in2];
+        final int size = k.matSize[out];
+        MatForkJoin.forRange(size, grain(size), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                ary[p0 + i] = ary[p1 + i] * ary[p2 + i];
+            }
+        });
+        k.markDirty();
+    }
+
+    /**
+     * ReLU.
+     * @param k kernel
+     * @param in input
+     * @param out output
+     * @see MatKernel#matReLu(int, int)
+     */
+    public static void matReLu(final MatKernel k, final int in, final int out) {
+        k.download();
+        final float[] ary = k.ary;
+        final int p0 = k.offset[out];
+        final int p1 = k.offset[in];
+        final int size = k.matSize[out];
+        MatForkJoin.forRange(size, grain(size), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                ary[p0 + i] = Math.max(ary[p1 + i], 0.0f);
+            }
+        });
+        k.markDirty();
+    }
+
+    /**
+     * differentiate of ReLU.
+     * @param k kernel
+     * @param in input
+     * @param out output
+     * @see MatKernel#matdReLu(int, int)
+     */
+    public static void matdReLu(final MatKernel k, final int in, final int out) {
+        k.download();
+        final float[] ary = k.ary;
+        final int p0 = k.offset[out];
+        final int p1 = k.offset[in];
+        final int size = k.matSize[out];
+        MatForkJoin.forRange(size, grain(size), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                ary[p0 + i] = ary[p1 + i] < 0.0f ? 0.0f : 1.0f;
+            }
+        });
+        k.markDirty();
+    }
+
+    /**
+     * multiple.
+     * <pre>
+     * Rows of out are split into chunks on the shared pool.
+     * Each chunk calculates its rows in i-k-j order,
+     * and the k loop is blocked by BLOCK_K to keep in2 rows in cache.
+     * </pre>
+     * @param k kernel
+     * @param in1 input1
+     * @param in2 input2
+     * @param out output
+     * @see MatKernel#matMul(int, int, int)
+     */
+    public static void matMul(final MatKernel k, final int in1, final int in2, final int out) {
+        if (k.isSparse(in1) || k.isSparse(in2) || k.isSparse(out)) {
+            throw new UnsupportedOperationException("Not supported for sparse matrix.");
+        }
+        k.download();
+        final int c0 = k.colSize[out];
+        final int c1 = k.colSize[in1];
+        mul(k.ary, k.offset[in1], c1, k.ary, k.offset[in2], k.colSize[in2],
+                k.ary, k.offset[out], c0, k.rowSize[out], c1, c0);
+        k.markDirty();
+    }
+
+    /**
+     * multiple of blocks in arrays.
+     * <pre>
+     * c (rows x cols) = a (rows x inner) X b (inner x cols)
+     * ld is the distance between the heads of two adjacent rows,
+     * so a block of a bigger matrix can be used. (see MatStrassen)
+     * </pre>
+     * @param a array of input1
+     * @param pa head of input1
+     * @param lda row stride of input1
+     * @param b array of input2
+     * @param pb head of input2
+     * @param ldb row stride of input2
+     * @param c array of output
+     * @param pc head of output
+     * @param ldc row stride of output
+     * @param rows row size of output
+     * @param inner col size of input1
+     * @param cols col size of output
+     */
+    static void mul(final float[] a, final int pa, final int lda,
+            final float[] b, final int pb, final int ldb,
+            final float[] c, final int pc, final int ldc,
+            final int rows, final int inner, final int cols) {
+
+        MatForkJoin.forRange(rows, MatForkJoin.grain(rows), (from, to) -> {
+            for (int row = from; row < to; row++) {
+                int o = pc + ldc * row;
+                for (int j = 0; j < cols; j++) {
+                    c[o + j] = 0.0f;
+                }
+            }
+            for (int k0 = 0; k0 < inner; k0 += BLOCK_K) {
+                int k1 = Math.min(k0 + BLOCK_K, inner);
+                for (int row = from; row < to; row++) {
+                    int o = pc + ldc * row;
+                    int p = pa + lda * row;
+                    for (int kk = k0; kk < k1; kk++) {
+                        float aik = a[p + kk];
+                        int q = pb + ldb * kk;
+                        for (int j = 0; j < cols; j++) {
+                            c[o + j] += aik * b[q + j];
+                        }
+                    }
+                }
+            }
+        });
+    }
+}
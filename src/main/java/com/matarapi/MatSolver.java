@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Linear system solver.
+ * <pre>
+ * A X = B is solved by forward/back substitution on LU of A,
+ * without calculating the inverse of A.
+ *
+ * Matrix x = MatSolver.solve(a, b);
+ *
+ * One decomposition can be used for many right-hand sides.
+ * int[] o = lu.toLU();
+ * Matrix x1 = MatSolver.solveLU(lu, o, b1);
+ * Matrix x2 = MatSolver.solveLU(lu, o, b2);
+ *
+ * Cols of B are independent, so they are solved in parallel
+ * on the shared ForkJoinPool (chunks of cols).
+ * On the kernel, use MatKernel.matSolveLU.
+ *
+ * For a symmetric positive-definite A, solveSPD() uses
+ * Cholesky decomposition (Matrix.toCholesky()) instead of LU.
+ * For an ill-conditioned A, MatRefine refines the solution in double.
+ * </pre>
+ * @author a.ho
+ */
+public final class MatSolver {
+
+    /**
+     * min cols per task.
+     */
+    private static final int GRAIN = 16;
+
+    private MatSolver() {
+    }
+
+    /**
+     * solve A X = B.
+     * @param a square matrix (not changed)
+     * @param b right-hand sides (n x m)
+     * @return X (n x m)
+     * @throws ExecutionException see Matrix.toLU()
+     */
+    public static Matrix solve(final Matrix a, final Matrix b) throws ExecutionException {
+        Matrix lu = a.copyAll();
+        int[] o = lu.toLU();
+        return solveLU(lu, o, b);
+    }
+
+    /**
+     * solve A X = B with LU of A.
+     * @param lu packed LU (see Matrix.toLU())
+     * @param o sort order by pivotting (returned by Matrix.toLU())
+     * @param b right-hand sides (n x m)
+     * @return X (n x m)
+     */
+    public static Matrix solveLU(final Matrix lu, final int[] o, final Matrix b) {
+        return solveLU(lu, o, b, new Matrix(b.getRowSize(), b.getColSize()));
+    }
+
+    /**
+     * solve A X = B with LU of A into existing Matrix.
+     * @param lu packed LU (see Matrix.toLU())
+     * @param o sort order by pivotting (returned by Matrix.toLU())
+     * @param b right-hand sides (n x m)
+     * @param x output (n x m, must not be b)
+     * @return x
+     */
+    public static Matrix solveLU(final Matrix lu, final int[] o, final Matrix b, final Matrix x) {
+        final int n = lu.getColSize();
+        final int m = b.getColSize();
+        if (lu.getRowSize() != n || b.getRowSize() != n || o.length != n) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        if (x.getRowSize() != n || x.getColSize() != m) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        final float[] a = lu.getAry();
+        final float[] pb = b.getAry();
+        final float[] px = x.getAry();
+
+        MatForkJoin.forRange(m, Math.max(GRAIN, MatForkJoin.grain(m)), (from, to) -> {
+            // === L Y = P B ===
+            for (int i = 0; i < n; i++) {
+                int pi = i * m;
+                System.arraycopy(pb, o[i] * m + from, px, pi + from, to - from);
+                for (int j = 0; j < i; j++) {
+                    float l = a[i * n + j];
+                    int pj = j * m;
+                    for (int c = from; c < to; c++) {
+                        px[pi + c] -= l * px[pj + c];
+                    }
+                }
+                float d = a[i * n + i];
+                for (int c = from; c < to; c++) {
+                    px[pi + c] /= d;
+                }
+            }
+            // === U X = Y ===
+            for (int i = n - 2; i >= 0; i--) {
+                int pi = i * m;
+                for (int j = i + 1; j < n; j++) {
+                    float u = a[i * n + j];
+                    int pj = j * m;
+                    for (int c = from; c < to; c++) {
+                        px[pi + c] -= u * px[pj + c];
+                    }
+                }
+            }
+        });
+        x.markDirty();
+        return x;
+    }
+
+    /**
+     * solve A X = B for a symmetric positive-definite A.
+     * @param a symmetric positive-definite matrix (not changed)
+     * @param b right-hand sides (n x m)
+     * @return X (n x m)
+     */
+    public static Matrix solveSPD(final Matrix a, final Matrix b) {
+        return solveCholesky(a.copyAll().toCholesky(), b);
+    }
+
+    /**
+     * solve A X = B with Cholesky factor of A. (A = L L^T)
+     * @param l L in the lower triangle (see Matrix.toCholesky())
+     * @param b right-hand sides (n x m)
+     * @return X (n x m)
+     */
+    public static Matrix solveCholesky(final Matrix l, final Matrix b) {
+        return solveCholesky(l, b, new Matrix(b.getRowSize(), b.getColSize()));
+    }
+
+    /**
+     * solve A X = B with Cholesky factor of A into existing Matrix.
+     * @param l L in the lower triangle (see Matrix.toCholesky())
+     * @param b right-hand sides (n x m)
+     * @param x output (n x m, can be b)
+     * @return x
+     */
+    public static Matrix solveCholesky(final Matrix l, final Matrix b, final Matrix x) {
+        final int n = l.getColSize();
+        final int m = b.getColSize();
+        if (l.getRowSize() != n || b.getRowSize() != n) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        if (x.getRowSize() != n || x.getColSize() != m) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        final float[] a = l.getAry();
+        final float[] pb = b.getAry();
+        final float[] px = x.getAry();
+
+        MatForkJoin.forRange(m, Math.max(GRAIN, MatForkJoin.grain(m)), (from, to) -> {
+            // === L Y = B ===
+            for (int i = 0; i < n; i++) {
+                int pi = i * m;
+                if (px != pb) {
+                    System.arraycopy(pb, pi + from, px, pi + from, to - from);
+                }
+                for (int j = 0; j < i; j++) {
+                    float v = a[i * n + j];
+                    int pj = j * m;
+                    for (int c = from; c < to; c++) {
+                        px[pi + c] -= v * px[pj + c];
+                    }
+                }
+                float d = a[i * n + i];
+                for (int c = from; c < to; c++) {
+                    px[pi + c] /= d;
+                }
+            }
+            // === L^T X = Y ===
+            for (int i = n - 1; i >= 0; i--) {
+                int pi = i * m;
+                for (int j = i + 1; j < n; j++) {
+                    float v = a[j * n + i];
+                    int pj = j * m;
+                    for (int c = from; c < to; c++) {
+                        px[pi + c] -= v * px[pj + c];
+                    }
+                }
+                float d = a[i * n + i];
+                for (int c = from; c < to; c++) {
+                    px[pi + c] /= d;
+                }
+            }
+        });
+        x.markDirty();
+        return x;
+    }
+}
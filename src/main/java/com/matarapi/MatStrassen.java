@@ -0,0 +1,470 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import java.util.Random;
+
+/**
+ * Strassen-Winograd multiple for large matrixes.
+ * <pre>
+ * C = A X B (A : m x k, B : k x n) with 7 products of half size
+ * and 15 additions per level, instead of 8 products.
+ * The recursion stops at the cutoff, and the leaves are calculated
+ * by the regular multiple of MatSimd (i-k-j order, blocked k loop)
+ * on the host by default. The quadrants are strided blocks of the
+ * host arrays, so a leaf on the kernel (matMulTiled) needs a copy
+ * and a transfer of 3 leaves each time. It is enabled by
+ * setKernelLeaves(true) for big leaves on an OpenCL device.
+ *
+ * MatStrassen st = new MatStrassen(m, k, n);
+ * Matrix c = st.mul(a, b);
+ *
+ * All temporaries are taken from one workspace, allocated in the
+ * constructor and reused by every call. So one instance is not
+ * thread-safe : mul() and matMul() are synchronized, and parallel
+ * callers need one instance each.
+ *  level l : X (m' x max(k', n')), Y (k' x n')   (m' = m / 2^(l+1), ...)
+ * The other temporaries are kept in the quadrants of C.
+ * (schedule of Boyer, Dumas, Pernet and Zhou, 22 steps)
+ * If m, k or n is not a multiple of 2^levels, A, B and C are
+ * padded with zeros in the workspace too.
+ *
+ * error bound (max element norm |X| = max |x_ij|, u : unit roundoff)
+ *  regular          : |C - C'| &lt;= k^2 u |A| |B| + O(u^2)
+ *  Strassen-Winograd: |C - C'| &lt;= ((s/s0)^log2(18) (s0^2 + 6 s0) - 6 s) u |A| |B| + O(u^2)
+ *  s : size, s0 : size of leaves (s = s0 2^levels)
+ * (Higham, Accuracy and Stability of Numerical Algorithms, 23.2)
+ * The bound is normwise, not elementwise. Small elements of C can
+ * lose their relative accuracy when |A| |B| is much larger, so keep
+ * the regular multiple for badly scaled matrixes.
+ * A bigger cutoff means fewer levels and a smaller error.
+ * </pre>
+ * @author a.ho
+ */
+public final class MatStrassen {
+
+    /**
+     * default cutoff. (min size of leaves)
+     * <pre>
+     * Not a universal value. One level of Strassen-Winograd saves
+     * 1/8 of the multiplies but adds 15 passes over quarter matrixes,
+     * so it pays off only when a leaf multiple is much slower than
+     * an addition. Use tuneCutoff() on the target machine.
+     * measured on 1 core (JDK 17, best of 3, ms) :
+     *  size   levels 0   1      2
+     *   256      8       7      8
+     *   512     60      54     51
+     *  1024    495     456    384
+     *  2048   3901    3443   3111
+     * </pre>
+     */
+    public static final int CUTOFF = 128;
+
+    /**
+     * kernel of leaves.
+     * slot 0 : A leaf, 1 : B leaf, 2 : C leaf
+     */
+    static class LeafKernel extends MatKernel {
+
+        LeafKernel(final int m, final int k, final int n) {
+            super(new MockMatrix(m, k), new MockMatrix(k, n), new MockMatrix(m, n));
+        }
+
+        @Override
+        public void run() {
+            matMulTiled(0, 1, 2);
+        }
+    }
+
+    /**
+     * block of an array.
+     */
+    private static final class Block {
+        final float[] ary;
+        final int p;
+        final int ld;
+
+        Block(final float[] ary, final int p, final int ld) {
+            this.ary = ary;
+            this.p = p;
+            this.ld = ld;
+        }
+
+        /**
+         * quadrant.
+         * @param r 0 : upper, 1 : lower
+         * @param c 0 : left, 1 : right
+         * @param rows row size of quadrant
+         * @param cols col size of quadrant
+         * @return quadrant
+         */
+        Block quad(final int r, final int c, final int rows, final int cols) {
+            return new Block(ary, p + ld * rows * r + cols * c, ld);
+        }
+    }
+
+    private final int m;
+    private final int k;
+    private final int n;
+    private final int levels;
+    /**
+     * padded sizes.
+     */
+    private final int pm;
+    private final int pk;
+    private final int pn;
+    private final float[] work;
+    /**
+     * heads of X and Y of each level.
+     */
+    private final int[] x;
+    private final int[] y;
+    /**
+     * heads of padded A, B and C. (-1 : not padded)
+     */
+    private final int pa;
+    private final int pb;
+    private final int pc;
+    /**
+     * leaves on the kernel. (null : MatSimd)
+     */
+    private LeafKernel leaf;
+
+    /**
+     * Constructor.
+     * @param m row size of A
+     * @param k col size of A (row size of B)
+     * @param n col size of B
+     */
+    public MatStrassen(final int m, final int k, final int n) {
+        this(m, k, n, CUTOFF);
+    }
+
+    /**
+     * Constructor.
+     * @param m row size of A
+     * @param k col size of A (row size of B)
+     * @param n col size of B
+     * @param cutoff min size of leaves
+     */
+    public MatStrassen(final int m, final int k, final int n, final int cutoff) {
+        if (cutoff < 1) {
+            throw new IllegalArgumentException("cutoff must be positive.");
+        }
+        this.m = m;
+        this.k = k;
+        this.n = n;
+        int min = Math.min(m, Math.min(k, n));
+        int l = 0;
+        while (min >> (l + 1) >= cutoff) {
+            l++;
+        }
+        this.levels = l;
+        this.pm = roundUp(m, 1 << l);
+        this.pk = roundUp(k, 1 << l);
+        this.pn = roundUp(n, 1 << l);
+
+        long size = 0;
+        x = new int[l];
+        y = new int[l];
+        for (int cnt = 0; cnt < l; cnt++) {
+            int m2 = pm >> (cnt + 1);
+            int k2 = pk >> (cnt + 1);
+            int n2 = pn >> (cnt + 1);
+            x[cnt] = (int) size;
+            size += (long) m2 * Math.max(k2, n2);
+            y[cnt] = (int) size;
+            size += (long) k2 * n2;
+        }
+        boolean padded = pm != m || pk != k || pn != n;
+        pa = padded ? (int) size : -1;
+        size += padded ? (long) pm * pk : 0;
+        pb = padded ? (int) size : -1;
+        size += padded ? (long) pk * pn : 0;
+        pc = padded ? (int) size : -1;
+        size += padded ? (long) pm * pn : 0;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("workspace is too large.");
+        }
+        work = new float[(int) size];
+    }
+
+    /**
+     * multiple of matrixes.
+     * @param a input1 (m x k)
+     * @param b input2 (k x n)
+     * @return A X B
+     */
+    public static Matrix multiply(final Matrix a, final Matrix b) {
+        return new MatStrassen(a.getRowSize(), a.getColSize(), b.getColSize()).mul(a, b);
+    }
+
+    /**
+     * measure the cutoff on this machine.
+     * <pre>
+     * For s = 64, 128, ... max, one level of Strassen-Winograd of
+     * s x s matrixes is timed against the regular multiple (best of 3).
+     * The cutoff is s / 2 of the first s where one level is faster.
+     * It takes a few seconds for max = 2048.
+     * </pre>
+     * @param max max size of matrixes
+     * @return cutoff (max if one level is never faster)
+     */
+    public static int tuneCutoff(final int max) {
+        Random rand = new Random(0);
+        for (int s = 64; s <= max; s *= 2) {
+            Matrix a = new Matrix(s, s);
+            Matrix b = new Matrix(s, s);
+            Matrix c = new Matrix(s, s);
+            float[] ary = a.getAry();
+            float[] bry = b.getAry();
+            for (int i = 0; i < ary.length; i++) {
+                ary[i] = rand.nextFloat();
+                bry[i] = rand.nextFloat();
+            }
+            a.markDirty();
+            b.markDirty();
+            long regular = time(new MatStrassen(s, s, s, s), a, b, c);
+            long strassen = time(new MatStrassen(s, s, s, s / 2), a, b, c);
+            if (strassen < regular) {
+                return s / 2;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * best time of 3 runs after a warm-up. (ns)
+     */
+    private static long time(final MatStrassen st, final Matrix a, final Matrix b, final Matrix c) {
+        st.mul(a, b, c);
+        long best = Long.MAX_VALUE;
+        for (int cnt = 0; cnt < 3; cnt++) {
+            long t0 = System.nanoTime();
+            st.mul(a, b, c);
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        return best;
+    }
+
+    /**
+     * multiple.
+     * @param a input1 (m x k, not changed)
+     * @param b input2 (k x n, not changed)
+     * @return A X B
+     */
+    public Matrix mul(final Matrix a, final Matrix b) {
+        return mul(a, b, new Matrix(m, n));
+    }
+
+    /**
+     * multiple into existing Matrix.
+     * @param a input1 (m x k, not changed)
+     * @param b input2 (k x n, not changed)
+     * @param out output (m x n, must not be a or b)
+     * @return out
+     */
+    public synchronized Matrix mul(final Matrix a, final Matrix b, final Matrix out) {
+        if (a.getRowSize() != m || a.getColSize() != k
+                || b.getRowSize() != k || b.getColSize() != n
+                || out.getRowSize() != m || out.getColSize() != n) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        mul(a.getAry(), 0, b.getAry(), 0, out.getAry(), 0);
+        out.markDirty();
+        return out;
+    }
+
+    /**
+     * multiple on the data array of a kernel.
+     * <pre>
+     * In explicit mode, the data array is transferred from the device
+     * before the calculation, and marked dirty after it.
+     * </pre>
+     * @param kernel kernel
+     * @param in1 input1 (m x k)
+     * @param in2 input2 (k x n)
+     * @param out output (m x n, must not be in1 or in2)
+     * @see MatSimd#matMul(MatKernel, int, int, int)
+     */
+    public synchronized void matMul(final MatKernel kernel, final int in1, final int in2, final int out) {
+        if (kernel.isSparse(in1) || kernel.isSparse(in2) || kernel.isSparse(out)) {
+            throw new UnsupportedOperationException("Not supported for sparse matrix.");
+        }
+        if (kernel.colSize[in1] != k || kernel.rowSize[in1] != m
+                || kernel.colSize[in2] != n || kernel.rowSize[in2] != k
+                || kernel.colSize[out] != n || kernel.rowSize[out] != m) {
+            throw new IllegalArgumentException("size mismatch.");
+        }
+        kernel.download();
+        float[] ary = kernel.ary;
+        mul(ary, kernel.offset[in1], ary, kernel.offset[in2], ary, kernel.offset[out]);
+        kernel.markDirty();
+    }
+
+    /**
+     * calculate the leaves on the kernel or not.
+     * @param kernelLeaves true : matMulTiled of a kernel, false : MatSimd (default)
+     */
+    public synchronized void setKernelLeaves(final boolean kernelLeaves) {
+        if (!kernelLeaves) {
+            leaf = null;
+        } else if (leaf == null) {
+            leaf = new LeafKernel(pm >> levels, pk >> levels, pn >> levels);
+            leaf.setExplicit(true);
+        }
+    }
+
+    /**
+     * leaves are calculated on the kernel or not.
+     * @return true if setKernelLeaves(true)
+     */
+    public synchronized boolean isKernelLeaves() {
+        return leaf != null;
+    }
+
+    /**
+     * number of levels of recursion.
+     * @return levels (0 : regular multiple)
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * size of workspace.
+     * @return number of floats
+     */
+    public int getWorkspaceSize() {
+        return work.length;
+    }
+
+    private void mul(final float[] a, final int p1, final float[] b, final int p2,
+            final float[] c, final int p0) {
+        if (pa < 0) {
+            strassen(0, new Block(a, p1, k), new Block(b, p2, n), new Block(c, p0, n), m, k, n);
+            return;
+        }
+        // padded area stays zero.
+        copy(a, p1, k, work, pa, pk, m, k);
+        copy(b, p2, n, work, pb, pn, k, n);
+        strassen(0, new Block(work, pa, pk), new Block(work, pb, pn), new Block(work, pc, pn), pm, pk, pn);
+        copy(work, pc, pn, c, p0, n, m, n);
+    }
+
+    /**
+     * C = A X B. (Winograd variant)
+     * <pre>
+     * S1 = A21 + A22  T1 = B12 - B11  P1 = A11 B11  P5 = S1 T1
+     * S2 = S1 - A11   T2 = B22 - T1   P2 = A12 B21  P6 = S2 T2
+     * S3 = A11 - A21  T3 = B22 - B12  P3 = S4 B22   P7 = S3 T3
+     * S4 = A12 - S2   T4 = T2 - B21   P4 = A22 T4
+     *
+     * C11 = P1 + P2            U2 = P1 + P6
+     * C12 = U2 + P5 + P3       U3 = U2 + P7
+     * C21 = U3 - P4
+     * C22 = U3 + P5
+     * </pre>
+     */
+    private void strassen(final int level, final Block a, final Block b, final Block c,
+            final int rows, final int inner, final int cols) {
+        if (level == levels) {
+            if (leaf == null) {
+                MatSimd.mul(a.ary, a.p, a.ld, b.ary, b.p, b.ld, c.ary, c.p, c.ld, rows, inner, cols);
+            } else {
+                leafMul(a, b, c, rows, inner, cols);
+            }
+            return;
+        }
+        final int m2 = rows / 2;
+        final int k2 = inner / 2;
+        final int n2 = cols / 2;
+        Block a11 = a.quad(0, 0, m2, k2);
+        Block a12 = a.quad(0, 1, m2, k2);
+        Block a21 = a.quad(1, 0, m2, k2);
+        Block a22 = a.quad(1, 1, m2, k2);
+        Block b11 = b.quad(0, 0, k2, n2);
+        Block b12 = b.quad(0, 1, k2, n2);
+        Block b21 = b.quad(1, 0, k2, n2);
+        Block b22 = b.quad(1, 1, k2, n2);
+        Block c11 = c.quad(0, 0, m2, n2);
+        Block c12 = c.quad(0, 1, m2, n2);
+        Block c21 = c.quad(1, 0, m2, n2);
+        Block c22 = c.quad(1, 1, m2, n2);
+        // X : S (m2 x k2) or P1 (m2 x n2), Y : T (k2 x n2)
+        Block xs = new Block(work, x[level], k2);
+        Block xp = new Block(work, x[level], n2);
+        Block yt = new Block(work, y[level], n2);
+        final int next = level + 1;
+
+        add(a11, a21, -1.0f, xs, m2, k2);                // S3
+        add(b22, b12, -1.0f, yt, k2, n2);                // T3
+        strassen(next, xs, yt, c21, m2, k2, n2);         // P7
+        add(a21, a22, 1.0f, xs, m2, k2);                 // S1
+        add(b12, b11, -1.0f, yt, k2, n2);                // T1
+        strassen(next, xs, yt, c22, m2, k2, n2);         // P5
+        add(xs, a11, -1.0f, xs, m2, k2);                 // S2
+        add(b22, yt, -1.0f, yt, k2, n2);                 // T2
+        strassen(next, xs, yt, c12, m2, k2, n2);         // P6
+        add(a12, xs, -1.0f, xs, m2, k2);                 // S4
+        strassen(next, xs, b22, c11, m2, k2, n2);        // P3
+        strassen(next, a11, b11, xp, m2, k2, n2);        // P1
+        add(xp, c12, 1.0f, c12, m2, n2);                 // U2 = P1 + P6
+        add(c12, c21, 1.0f, c21, m2, n2);                // U3 = U2 + P7
+        add(c12, c22, 1.0f, c12, m2, n2);                // U4 = U2 + P5
+        add(c21, c22, 1.0f, c22, m2, n2);                // C22 = U3 + P5
+        add(c12, c11, 1.0f, c12, m2, n2);                // C12 = U4 + P3
+        add(yt, b21, -1.0f, yt, k2, n2);                 // T4
+        strassen(next, a22, yt, c11, m2, k2, n2);        // P4
+        add(c21, c11, -1.0f, c21, m2, n2);               // C21 = U3 - P4
+        strassen(next, a12, b21, c11, m2, k2, n2);       // P2
+        add(xp, c11, 1.0f, c11, m2, n2);                 // C11 = P1 + P2
+    }
+
+    /**
+     * C = A X B of a leaf on the kernel.
+     */
+    private void leafMul(final Block a, final Block b, final Block c,
+            final int rows, final int inner, final int cols) {
+        final float[] ary = leaf.ary;
+        leaf.download();
+        copy(a.ary, a.p, a.ld, ary, leaf.offset[0], inner, rows, inner);
+        copy(b.ary, b.p, b.ld, ary, leaf.offset[1], cols, inner, cols);
+        leaf.markDirty();
+        leaf.execute(leaf.rangeTiled(2));
+        leaf.download();
+        copy(ary, leaf.offset[2], cols, c.ary, c.p, c.ld, rows, cols);
+    }
+
+    /**
+     * out = in1 + sign in2. (out can be in1 or in2)
+     */
+    private static void add(final Block in1, final Block in2, final float sign, final Block out,
+            final int rows, final int cols) {
+        final float[] a = in1.ary;
+        final float[] b = in2.ary;
+        final float[] c = out.ary;
+        MatForkJoin.forRange(rows, MatForkJoin.grain(rows), (from, to) -> {
+            for (int row = from; row < to; row++) {
+                int p1 = in1.p + in1.ld * row;
+                int p2 = in2.p + in2.ld * row;
+                int p0 = out.p + out.ld * row;
+                for (int j = 0; j < cols; j++) {
+                    c[p0 + j] = a[p1 + j] + sign * b[p2 + j];
+                }
+            }
+        });
+    }
+
+    private static void copy(final float[] src, final int ps, final int lds,
+            final float[] dst, final int pd, final int ldd, final int rows, final int cols) {
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(src, ps + lds * row, dst, pd + ldd * row, cols);
+        }
+    }
+
+    private static int roundUp(final int v, final int unit) {
+        return (v + unit - 1) / unit * unit;
+    }
+}
@@ -3,72 +3,188 @@
  */
 package com.matarapi;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Queue;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import lombok.Data;
+import lombok.EqualsAndHashCode;
 
 /**
  * Matrix data structure for Matarapi.
+ * <pre>
+ * The elements are stored in one contiguous array in row-major order.
+ * The element (r, c) is placed at ary[r * stride + c], and the stride
+ * of a Matrix is always equal to its col size.
+ *
+ * data       ary
+ * |a b c| => |a b c d e f|
+ * |d e f|
+ * </pre>
  *
  * @author a.ho
  */
-@Data
+@EqualsAndHashCode(exclude = "version")
 public class Matrix implements IMatrix {
 
-    private float[][] data;
+    /**
+     * block size (cols) of toLU() and toCholesky().
+     */
+    private static final int LU_BLOCK = 64;
+    /**
+     * min rows per task of toLU() panel.
+     */
+    private static final int LU_GRAIN = 64;
+
+    /**
+     * data array (row-major).
+     */
+    private final float[] ary;
+    /**
+     * row size.
+     */
+    private final int row;
+    /**
+     * col size.
+     */
+    private final int col;
+    /**
+     * modification count. (see MatFactorCache)
+     */
+    private int version;
     
     public Matrix(final int rowcol) {
         this(rowcol, rowcol);        
     }
 
     public Matrix(final int row, final int col) {
-        data = new float[row][col];
+        this.ary = new float[row * col];
+        this.row = row;
+        this.col = col;
     }
 
     public Matrix(final float[][] initval) {
-        data = initval;
+        this(initval.length, initval[0].length);
+        setData(initval);
     }
     
     public Matrix(final float[] ary, final int offset, final int row, final int col) {
         this(row, col);
-
-        int p = offset;
-        for (int r = 0; r < row; r++) {
-            for (int c = 0; c < col; c++) {
-                setVal(r, c, ary[p]);
-                p += 1;
-            }
-        }
+        System.arraycopy(ary, offset, this.ary, 0, this.ary.length);
     }
 
     @Override
     public final int getSize() {
-        return getRowSize() * getColSize();
+        return ary.length;
     }
 
     @Override
     public final int getRowSize() {
-        return data.length;
+        return row;
     }
 
     @Override
     public final int getColSize() {
-        return data[0].length;
+        return col;
+    }
+
+    /**
+     * get stride.
+     * <pre>
+     * distance between the heads of two adjacent rows in the data array.
+     * </pre>
+     * @return stride (= col size)
+     */
+    public final int getStride() {
+        return col;
+    }
+
+    /**
+     * get data array.
+     * <pre>
+     * The array is not copied. Modifications are reflected to this matrix.
+     * </pre>
+     * @return data array (row-major)
+     */
+    public final float[] getAry() {
+        return ary;
+    }
+
+    /**
+     * modification count.
+     * <pre>
+     * It is incremented by every modification through the methods of Matrix.
+     * After writing getAry() directly, call markDirty().
+     * </pre>
+     * @return version
+     */
+    public final int getVersion() {
+        return version;
+    }
+
+    /**
+     * mark this matrix as modified. (increment version)
+     */
+    public final void markDirty() {
+        version++;
     }
 
     public final void setVal(final int row, final int col, final float val) {
-        data[row][col] = val;
+        ary[row * this.col + col] = val;
+        version++;
     }
 
+    @Override
     public final float getVal(final int row, final int col) {
-        return data[row][col];
+        return ary[row * this.col + col];
+    }
+
+    /**
+     * get data as jagged array.
+     * <pre>
+     * This is an adapter for the former float[][] storage.
+     * The returned array is a copy of this matrix.
+     * </pre>
+     * @return copy of data
+     */
+    @Override
+    public float[][] getData() {
+        float[][] data = new float[row][];
+        for (int r = 0; r < row; r++) {
+            data[r] = Arrays.copyOfRange(ary, r * col, (r + 1) * col);
+        }
+        return data;
+    }
+
+    /**
+     * set data from jagged array.
+     * <pre>
+     * This is an adapter for the former float[][] storage.
+     * The size of data must be same as this matrix.
+     * </pre>
+     * @param data data
+     */
+    public void setData(final float[][] data) {
+        if (data.length != row) {
+            throw new IllegalArgumentException("row size mismatch.");
+        }
+        for (int r = 0; r < row; r++) {
+            if (data[r].length != col) {
+                throw new IllegalArgumentException("col size mismatch.");
+            }
+            System.arraycopy(data[r], 0, ary, r * col, col);
+        }
+        version++;
+    }
+
+    /**
+     * view of this matrix (no copy).
+     * <pre>
+     * Use view().sub(...) for a sub matrix
+     * and view().transpose() for a transposed matrix.
+     * setVal() through the view increments the version of this matrix.
+     * </pre>
+     * @return view
+     */
+    public MatrixView view() {
+        return new MatrixView(ary, 0, row, col, col, 1, this);
     }
 
     /**
@@ -77,12 +193,7 @@ public class Matrix implements IMatrix {
      * @return whole copy of this matrix
      */
     public Matrix copyAll() {
-        List<float[]> cpy = new ArrayList<>();
-
-        for (float[] row : data) {
-            cpy.add(Arrays.copyOf(row, row.length));
-        }
-        return new Matrix(cpy.toArray(new float[0][]));
+        return new Matrix(ary, 0, row, col);
     }
 
     /**
@@ -97,15 +208,14 @@ public class Matrix implements IMatrix {
      * @return copy of the lower triangle in this matrix
      */
     public Matrix copyL() {
-        float[][] cpy = new float[getRowSize()][getColSize()];
+        Matrix cpy = new Matrix(row, col);
 
-        for (int x = 0; x < getColSize(); x++) {
-            for (int y = x; y < getRowSize(); y++) {
-                cpy[y][x] = data[y][x];
-            }
+        for (int y = 0; y < row; y++) {
+            int len = Math.min(y + 1, col);
+            System.arraycopy(ary, y * col, cpy.ary, y * col, len);
         }
 
-        return new Matrix(cpy);
+        return cpy;
     }
 
     /**
@@ -120,16 +230,15 @@ public class Matrix implements IMatrix {
      * @return copy of the lower triangle in this matrix
      */
     public Matrix copyU() {
-        float[][] cpy = new float[getRowSize()][getColSize()];
+        Matrix cpy = new Matrix(row, col);
 
-        for (int x = 0; x < getColSize(); x++) {
-            for (int y = 0; y < x; y++) {
-                cpy[y][x] = data[y][x];
-            }
-            cpy[x][x] = 1.0f;
+        for (int y = 0; y < row && y < col; y++) {
+            int p = y * col + y;
+            cpy.ary[p] = 1.0f;
+            System.arraycopy(ary, p + 1, cpy.ary, p + 1, col - y - 1);
         }
 
-        return new Matrix(cpy);
+        return cpy;
     }
 
     /**
@@ -141,7 +250,7 @@ public class Matrix implements IMatrix {
      * |d e f|   |l(21) l(22) 0    ||0     1     u(23)|
      * |g h i|   |l(31) l(32) l(33)||0     0     1    |
      *
-     * 2. LU is stored in the 'data' variable as following structure
+     * 2. LU is stored in this matrix as following structure
      * data
      * |l(11) u(12) u(13)|
      * |l(21) l(22) u(23)|
@@ -149,45 +258,40 @@ public class Matrix implements IMatrix {
      *
      * # The diagonal component of the upper triangle is ommited in this structure,
      * # because all these are always 1.
+     *
+     * 3. blocked right-looking algorithm on the shared ForkJoinPool (MatForkJoin).
+     * for each block of LU_BLOCK cols:
+     *  - panel     : LU of the block cols with pivoting (rows are swapped in place)
+     *  - row block : U12 = L11^-1 A12 (split by cols)
+     *  - update    : A22 = A22 - L21 X U12 (split by rows)
+     * Nothing is allocated per element. (see also MatKernel.matLU)
      * </pre>
      *
      * @return sort order by pivotting
-     * @throws ExecutionException
+     * @throws ExecutionException (not thrown. kept for compatibility)
      */
     public int[] toLU() throws ExecutionException {
-        final int colSize = getColSize();
+        final int n = getColSize();
         final int rowSize = getRowSize();
+        final float[] a = ary;
+        version++;
 
-        int[] o = new int[colSize];
-        for (int cnt = 0; cnt < colSize; cnt++) {
+        int[] o = new int[rowSize];
+        for (int cnt = 0; cnt < rowSize; cnt++) {
             o[cnt] = cnt;
         }
 
-        ExecutorService ex = Executors.newCachedThreadPool();
-        Queue<Future> fQueue = new LinkedList<>();
-        try {
-            for (int s = 0; s < colSize; s++) {
-                final int ss = s;
-
-                // === l[y][s] ===
-                for (int y = ss; y < rowSize; y++) {
-                    final int yy = y;
-                    fQueue.add(ex.submit(() -> {
-                        for (int k = 0; k < ss; k++) {
-                            data[o[yy]][ss] -= data[o[yy]][k] * data[o[k]][ss];
-                        }
-                    }));
-                }
+        for (int k0 = 0; k0 < n; k0 += LU_BLOCK) {
+            final int k = k0;
+            final int end = Math.min(k0 + LU_BLOCK, n);
 
+            // === panel ===
+            for (int s = k0; s < end; s++) {
                 // === pivot select ===
-                while (!fQueue.isEmpty()) {
-                    (fQueue.poll()).get();
-                }
-
                 int maxLidx = -1;
                 float maxL = 0.0f, tmp;
-                for (int y = ss; y < rowSize; y++) {
-                    tmp = Math.abs(data[o[y]][s]);
+                for (int y = s; y < rowSize; y++) {
+                    tmp = Math.abs(a[y * n + s]);
                     if (maxL < tmp) {
                         maxLidx = y;
                         maxL = tmp;
@@ -198,50 +302,171 @@ public class Matrix implements IMatrix {
                     // ie. l[i][i] == 0, in other words, Matrix m has no l and u strictly.
                     // But this method calculate an approximation on the assumption that
                     // l[i][i] would be Float.MIN_VALUE(1.401298464324817E-45f).
-                    data[o[s]][s] = Float.MIN_VALUE;
-                } else {
-                    // found pivot row, pivot row is o[maxLidx].
-                    // So, swap row o[s] and o[maxLidx].
-                    // o[s] (former o[maxLidx]) row will be processed following
-                    // "=== u[s][x] ===" section.
+                    a[s * n + s] = Float.MIN_VALUE;
+                } else if (maxLidx != s) {
+                    // found pivot row, swap row s and maxLidx.
+                    int ps = s * n;
+                    int pm = maxLidx * n;
+                    for (int x = 0; x < n; x++) {
+                        float t = a[ps + x];
+                        a[ps + x] = a[pm + x];
+                        a[pm + x] = t;
+                    }
                     int t = o[s];
                     o[s] = o[maxLidx];
                     o[maxLidx] = t;
                 }
 
-                // === u[s][x] ===
-                // to calculate u[s][x]
-                // , it is needed to finish calculating u[s-1][x]
-                // (x = s+1,s+2,...,n)
-                for (int x = ss + 1; x < colSize; x++) {
-                    final int xx = x;
-                    fQueue.add(ex.submit(() -> {
-                        for (int k = 0; k < ss; k++) {
-                            data[o[ss]][xx] -= data[o[ss]][k] * data[o[k]][xx];
-                        }
-                        data[o[ss]][xx] /= data[o[ss]][ss];
-                    }));
+                // === u[s][x] in the panel ===
+                final int ss = s;
+                final int ps = s * n;
+                for (int x = s + 1; x < end; x++) {
+                    a[ps + x] /= a[ps + s];
                 }
-                // to calculate l[y][s+1] (y=s+1,s+2,...,n)
-                // , it is needed to finish calculating u[s][s+1]
-                if (!fQueue.isEmpty()) {
-                    // wait until the first submitted task is finished.
-                    (fQueue.poll()).get();
+
+                // === l[y][x] in the panel ===
+                if (s + 1 < end) {
+                    MatForkJoin.forRange(rowSize - s - 1, LU_GRAIN, (from, to) -> {
+                        for (int y = ss + 1 + from; y < ss + 1 + to; y++) {
+                            int py = y * n;
+                            float l = a[py + ss];
+                            for (int x = ss + 1; x < end; x++) {
+                                a[py + x] -= l * a[ps + x];
+                            }
+                        }
+                    });
                 }
             }
+            if (end == n) {
+                break;
+            }
+
+            // === row block ===
+            MatForkJoin.forRange(n - end, Math.max(LU_BLOCK, MatForkJoin.grain(n - end)), (from, to) -> {
+                int x0 = end + from;
+                int x1 = end + to;
+                for (int i = k; i < end; i++) {
+                    int pi = i * n;
+                    for (int j = k; j < i; j++) {
+                        float l = a[pi + j];
+                        int pj = j * n;
+                        for (int x = x0; x < x1; x++) {
+                            a[pi + x] -= l * a[pj + x];
+                        }
+                    }
+                    float d = a[pi + i];
+                    for (int x = x0; x < x1; x++) {
+                        a[pi + x] /= d;
+                    }
+                }
+            });
+
+            // === trailing update ===
+            MatForkJoin.forRange(rowSize - end, (from, to) -> {
+                for (int y = end + from; y < end + to; y++) {
+                    int py = y * n;
+                    for (int j = k; j < end; j++) {
+                        float l = a[py + j];
+                        int pj = j * n;
+                        for (int x = end; x < n; x++) {
+                            a[py + x] -= l * a[pj + x];
+                        }
+                    }
+                }
+            });
+        }
 
-            // === sort ===
-            float[][] cpy = Arrays.copyOf(data, data.length);
-            for (int cnt = 0; cnt < data.length; cnt++) {
-                data[cnt] = cpy[o[cnt]];
+        return o;
+    }
+
+    /**
+     * Cholesky decomposition.
+     * <pre>
+     * For a symmetric positive-definite matrix,
+     * data       L                    L^T
+     * |a b c| = |l(11) 0     0    ||l(11) l(21) l(31)|
+     * |b e f|   |l(21) l(22) 0    ||0     l(22) l(32)|
+     * |c f i|   |l(31) l(32) l(33)||0     0     l(33)|
+     *
+     * L is stored in the lower triangle (includes diagonal) of this matrix.
+     * Only the lower triangle is read, and the upper triangle is not changed.
+     * (use copyL() to get L)
+     *
+     * No pivoting is needed, and it is about half the work of toLU().
+     * The blocked algorithm runs on the shared ForkJoinPool as toLU().
+     * (see also MatKernel.matCholesky)
+     * </pre>
+     *
+     * @return this
+     * @throws IllegalArgumentException if this is not square
+     * @throws IllegalStateException if this is not positive-definite
+     */
+    public Matrix toCholesky() {
+        final int n = getColSize();
+        if (getRowSize() != n) {
+            throw new IllegalArgumentException("square matrix is required.");
+        }
+        final float[] a = ary;
+        version++;
+
+        for (int k0 = 0; k0 < n; k0 += LU_BLOCK) {
+            final int k = k0;
+            final int end = Math.min(k0 + LU_BLOCK, n);
+
+            // === diagonal block ===
+            for (int j = k0; j < end; j++) {
+                float d = a[j * n + j];
+                if (!(d > 0.0f)) {
+                    throw new IllegalStateException("not positive-definite.");
+                }
+                d = (float) Math.sqrt(d);
+                a[j * n + j] = d;
+                for (int i = j + 1; i < end; i++) {
+                    a[i * n + j] /= d;
+                }
+                for (int i = j + 1; i < end; i++) {
+                    float l = a[i * n + j];
+                    for (int p = j + 1; p <= i; p++) {
+                        a[i * n + p] -= l * a[p * n + j];
+                    }
+                }
+            }
+            if (end == n) {
+                break;
             }
 
-            return o;
-        } catch (InterruptedException interruptedEx) {
-            throw new ExecutionException(interruptedEx);
-        } finally {
-            ex.shutdown();
+            // === panel, L21 = A21 L11^-T ===
+            MatForkJoin.forRange(n - end, (from, to) -> {
+                for (int i = end + from; i < end + to; i++) {
+                    int pi = i * n;
+                    for (int j = k; j < end; j++) {
+                        int pj = j * n;
+                        float v = a[pi + j];
+                        for (int p = k; p < j; p++) {
+                            v -= a[pi + p] * a[pj + p];
+                        }
+                        a[pi + j] = v / a[pj + j];
+                    }
+                }
+            });
+
+            // === trailing update, A22 = A22 - L21 L21^T (lower triangle) ===
+            MatForkJoin.forRange(n - end, (from, to) -> {
+                for (int i = end + from; i < end + to; i++) {
+                    int pi = i * n;
+                    for (int p = end; p <= i; p++) {
+                        int pp = p * n;
+                        float v = 0.0f;
+                        for (int j = k; j < end; j++) {
+                            v += a[pi + j] * a[pp + j];
+                        }
+                        a[pi + p] -= v;
+                    }
+                }
+            });
         }
+
+        return this;
     }
 
     /**
@@ -259,13 +484,11 @@ public class Matrix implements IMatrix {
      */
     public Matrix toE() {
         
-        int rowNo = 0;
-        for (float[] row : data) {
-            for (int colNo = 0; colNo < row.length; colNo++) {
-                row[colNo] = (rowNo == colNo ? 1.0f : 0.0f);
-            }
-            rowNo += 1;
+        Arrays.fill(ary, 0.0f);
+        for (int p = 0; p < row && p < col; p++) {
+            ary[p * col + p] = 1.0f;
         }
+        version++;
         
         return this;
     }
@@ -282,13 +505,8 @@ public class Matrix implements IMatrix {
      */
     public Matrix toZ() {
         
-        int rowNo = 0;
-        for (float[] row : data) {
-            for (int colNo = 0; colNo < row.length; colNo++) {
-                row[colNo] = 0.0f;
-            }
-            rowNo += 1;
-        }
+        Arrays.fill(ary, 0.0f);
+        version++;
         
         return this;
     }
@@ -318,22 +536,17 @@ public class Matrix implements IMatrix {
      */    
     @Override
     public int accept(float[] ary, int p) {
-        for (float[] vec : data) {
-            for (float val : vec) {
-                ary[p] = val;
-                p += 1;
-            }
-        }
-        return p;
+        System.arraycopy(this.ary, 0, ary, p, this.ary.length);
+        return p + this.ary.length;
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
 
-        for (float[] vec : data) {
-            for (float val : vec) {
-                sb.append(String.format("%.2f ", val));
+        for (int r = 0; r < row; r++) {
+            for (int c = 0; c < col; c++) {
+                sb.append(String.format("%.2f ", ary[r * col + c]));
             }
             sb.append("\n");
         }
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+/**
+ * Matrix view.
+ * <pre>
+ * A view refers a part of an existing data array without copying.
+ * The element (r, c) is ary[offset + r * rowStride + c * colStride].
+ *
+ * ary                     view(offset=1, row=2, col=2, rowStride=4, colStride=1)
+ * |a b c d|               |b c|
+ * |e f g h|            => |f g|
+ * |i j k l|
+ *
+ * transpose() only swaps the sizes and strides,
+ * so a transposed view is also made without copying.
+ *
+ * Modifications through the view are reflected to the original array
+ * and vice versa. setVal() through a view of Matrix (Matrix.view())
+ * increments the version of the Matrix. (see MatFactorCache)
+ * </pre>
+ * @author a.ho
+ */
+public class MatrixView implements IMatrix {
+
+    /**
+     * data array.
+     */
+    private final float[] ary;
+    /**
+     * offset of element (0, 0).
+     */
+    private final int offset;
+    /**
+     * row size.
+     */
+    private final int row;
+    /**
+     * col size.
+     */
+    private final int col;
+    /**
+     * distance between (r, c) and (r + 1, c).
+     */
+    private final int rowStride;
+    /**
+     * distance between (r, c) and (r, c + 1).
+     */
+    private final int colStride;
+    /**
+     * owner of the data array. (null : not a view of Matrix)
+     */
+    private final Matrix owner;
+
+    /**
+     * Constructor for row-major contiguous matrix.
+     * @param ary data array
+     * @param offset offset of element (0, 0)
+     * @param row row size
+     * @param col col size
+     */
+    public MatrixView(final float[] ary, final int offset, final int row, final int col) {
+        this(ary, offset, row, col, col, 1);
+    }
+
+    public MatrixView(final float[] ary, final int offset, final int row, final int col,
+            final int rowStride, final int colStride) {
+        this(ary, offset, row, col, rowStride, colStride, null);
+    }
+
+    /**
+     * Constructor for a view of Matrix.
+     * <pre>
+     * setVal() through the view increments the version of the owner.
+     * (see Matrix.getVersion())
+     * </pre>
+     */
+    MatrixView(final float[] ary, final int offset, final int row, final int col,
+            final int rowStride, final int colStride, final Matrix owner) {
+        this.owner = owner;
+        this.ary = ary;
+        this.offset = offset;
+        this.row = row;
+        this.col = col;
+        this.rowStride = rowStride;
+        this.colStride = colStride;
+    }
+
+    @Override
+    public int getColSize() {
+        return col;
+    }
+
+    @Override
+    public int getRowSize() {
+        return row;
+    }
+
+    @Override
+    public int getSize() {
+        return row * col;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getRowStride() {
+        return rowStride;
+    }
+
+    public int getColStride() {
+        return colStride;
+    }
+
+    /**
+     * get data array.
+     * <pre>
+     * The array is not copied.
+     * </pre>
+     * @return data array
+     */
+    public float[] getAry() {
+        return ary;
+    }
+
+    @Override
+    public float getVal(final int row, final int col) {
+        return ary[offset + row * rowStride + col * colStride];
+    }
+
+    public void setVal(final int row, final int col, final float val) {
+        ary[offset + row * rowStride + col * colStride] = val;
+        if (null != owner) {
+            owner.markDirty();
+        }
+    }
+
+    /**
+     * sub matrix view.
+     * <pre>
+     * view                  sub(1, 1, 2, 2)
+     * |a b c|
+     * |d e f|            => |e f|
+     * |g h i|               |h i|
+     * </pre>
+     * @param row row number of the top left element
+     * @param col col number of the top left element
+     * @param rowSize row size
+     * @param colSize col size
+     * @return sub matrix view
+     */
+    public MatrixView sub(final int row, final int col, final int rowSize, final int colSize) {
+        if (row < 0 || col < 0 || row + rowSize > this.row || col + colSize > this.col) {
+            throw new IndexOutOfBoundsException("sub matrix is out of the view.");
+        }
+        return new MatrixView(ary, offset + row * rowStride + col * colStride,
+                rowSize, colSize, rowStride, colStride, owner);
+    }
+
+    /**
+     * transposed view.
+     * <pre>
+     * view      transpose()
+     * |a b c| = |a d|
+     * |d e f|   |b e|
+     *           |c f|
+     * </pre>
+     * @return transposed view
+     */
+    public MatrixView transpose() {
+        return new MatrixView(ary, offset, col, row, colStride, rowStride, owner);
+    }
+
+    /**
+     * copy to new Matrix.
+     * @return Matrix
+     */
+    public Matrix toMatrix() {
+        Matrix m = new Matrix(row, col);
+        accept(m.getAry(), 0);
+        return m;
+    }
+
+    @Override
+    public float[][] getData() {
+        float[][] data = new float[row][col];
+        for (int r = 0; r < row; r++) {
+            for (int c = 0; c < col; c++) {
+                data[r][c] = getVal(r, c);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * copy containts data to ary.
+     * @param ary data array
+     * @param p write pointer
+     * @return next pointer
+     */
+    @Override
+    public int accept(float[] ary, int p) {
+        int head = offset;
+        for (int r = 0; r < row; r++) {
+            if (1 == colStride) {
+                System.arraycopy(this.ary, head, ary, p, col);
+                p += col;
+            } else {
+                int q = head;
+                for (int c = 0; c < col; c++) {
+                    ary[p] = this.ary[q];
+                    p += 1;
+                    q += colStride;
+                }
+            }
+            head += rowStride;
+        }
+        return p;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        for (int r = 0; r < row; r++) {
+            for (int c = 0; c < col; c++) {
+                sb.append(String.format("%.2f ", getVal(r, c)));
+            }
+            sb.append("\n");
+        }
+
+        return sb.toString();
+    }
+}
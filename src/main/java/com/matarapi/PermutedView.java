@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+/**
+ * Permuted matrix view.
+ * <pre>
+ * A view reads rows and columns of an existing matrix in another order
+ * without copying.
+ *
+ * base      rowIdx = [2,0,1]
+ * |a b c|   colIdx = null (as is)
+ * |d e f| => |g h i|
+ * |g h i|    |a b c|
+ *            |d e f|
+ *
+ * view(r, c) = base(rowIdx[r], colIdx[c])
+ *
+ * Use sortRow() / sortCol() to make a view same as
+ * the result of MatKernel.matSortRow() / matSortCol().
+ * </pre>
+ * @author a.ho
+ */
+public class PermutedView implements IMatrix {
+
+    /**
+     * original matrix.
+     */
+    private final IMatrix base;
+    /**
+     * row index of base for each row. (null : as is)
+     */
+    private final int[] rowIdx;
+    /**
+     * col index of base for each col. (null : as is)
+     */
+    private final int[] colIdx;
+
+    /**
+     * Constructor.
+     * @param base original matrix
+     * @param rowIdx row index of base for each row (null : as is)
+     * @param colIdx col index of base for each col (null : as is)
+     */
+    public PermutedView(final IMatrix base, final int[] rowIdx, final int[] colIdx) {
+        if (rowIdx != null && rowIdx.length != base.getRowSize()) {
+            throw new IllegalArgumentException("rowIdx size must be same as row size.");
+        }
+        if (colIdx != null && colIdx.length != base.getColSize()) {
+            throw new IllegalArgumentException("colIdx size must be same as col size.");
+        }
+        this.base = base;
+        this.rowIdx = rowIdx;
+        this.colIdx = colIdx;
+    }
+
+    /**
+     * sort rows.
+     * <pre>
+     * base      sortRow(base, [1,0,2])
+     * |a b c| = |d e f|
+     * |d e f|   |a b c|
+     * |g h i|   |g h i|
+     *
+     * order = [1,0,2] means:
+     * Row 0 -> Row 1
+     * Row 1 -> Row 0
+     * Row 2 -> Row 2
+     * </pre>
+     * @param base original matrix
+     * @param order sort order
+     * @return view
+     */
+    public static PermutedView sortRow(final IMatrix base, final int[] order) {
+        return new PermutedView(base, invert(order), null);
+    }
+
+    /**
+     * sort columns.
+     * <pre>
+     * base      sortCol(base, [1,0,2])
+     * |a b c| = |b a c|
+     * |d e f|   |e d f|
+     * |g h i|   |h g i|
+     *
+     * order = [1,0,2] means:
+     * Col 0 -> Col 1
+     * Col 1 -> Col 0
+     * Col 2 -> Col 2
+     * </pre>
+     * @param base original matrix
+     * @param order sort order
+     * @return view
+     */
+    public static PermutedView sortCol(final IMatrix base, final int[] order) {
+        return new PermutedView(base, null, invert(order));
+    }
+
+    private static int[] invert(final int[] order) {
+        int[] inv = new int[order.length];
+        for (int cnt = 0; cnt < order.length; cnt++) {
+            inv[order[cnt]] = cnt;
+        }
+        return inv;
+    }
+
+    @Override
+    public int getColSize() {
+        return base.getColSize();
+    }
+
+    @Override
+    public int getRowSize() {
+        return base.getRowSize();
+    }
+
+    @Override
+    public int getSize() {
+        return getRowSize() * getColSize();
+    }
+
+    @Override
+    public float getVal(final int row, final int col) {
+        return base.getVal(null == rowIdx ? row : rowIdx[row], null == colIdx ? col : colIdx[col]);
+    }
+
+    /**
+     * copy to new Matrix.
+     * @return Matrix
+     */
+    public Matrix toMatrix() {
+        Matrix m = new Matrix(getRowSize(), getColSize());
+        accept(m.getAry(), 0);
+        return m;
+    }
+
+    @Override
+    public float[][] getData() {
+        float[][] data = new float[getRowSize()][getColSize()];
+        for (int r = 0; r < data.length; r++) {
+            for (int c = 0; c < data[r].length; c++) {
+                data[r][c] = getVal(r, c);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * copy containts data to ary.
+     * @param ary data array
+     * @param p write pointer
+     * @return next pointer
+     */
+    @Override
+    public int accept(float[] ary, int p) {
+        for (int r = 0; r < getRowSize(); r++) {
+            for (int c = 0; c < getColSize(); c++) {
+                ary[p] = getVal(r, c);
+                p += 1;
+            }
+        }
+        return p;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        for (int r = 0; r < getRowSize(); r++) {
+            for (int c = 0; c < getColSize(); c++) {
+                sb.append(String.format("%.2f ", getVal(r, c)));
+            }
+            sb.append("\n");
+        }
+
+        return sb.toString();
+    }
+}
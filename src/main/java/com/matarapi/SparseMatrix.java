@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import java.util.Arrays;
+
+/**
+ * Sparse Matrix (CSR : Compressed Sparse Row).
+ * <pre>
+ * Only non-zero elements are stored.
+ *
+ * data           val    = |a b c d|
+ * |a 0 b 0|      colIdx = |0 2 1 3|
+ * |0 c 0 0|  =>  rowPtr = |0 2 3 4|
+ * |0 0 0 d|
+ *
+ * The elements of row r are val[rowPtr[r]] .. val[rowPtr[r+1]-1]
+ * and those column numbers are colIdx[rowPtr[r]] .. colIdx[rowPtr[r+1]-1].
+ *
+ * In MatKernel, val is stored in the data array 'ary'
+ * and rowPtr + colIdx are stored in the index array 'idx'.
+ * </pre>
+ * @author a.ho
+ */
+public class SparseMatrix implements IMatrix {
+
+    /**
+     * row size.
+     */
+    private final int row;
+    /**
+     * col size.
+     */
+    private final int col;
+    /**
+     * head of each row in val (row + 1 elements).
+     */
+    private final int[] rowPtr;
+    /**
+     * column number of each element.
+     */
+    private final int[] colIdx;
+    /**
+     * non-zero elements.
+     */
+    private final float[] val;
+
+    /**
+     * Constructor.
+     * <pre>
+     * The arrays are not copied.
+     * </pre>
+     * @param row row size
+     * @param col col size
+     * @param rowPtr head of each row in val (row + 1 elements)
+     * @param colIdx column number of each element
+     * @param val non-zero elements
+     */
+    public SparseMatrix(final int row, final int col, final int[] rowPtr, final int[] colIdx, final float[] val) {
+        if (rowPtr.length != row + 1) {
+            throw new IllegalArgumentException("rowPtr size must be row + 1.");
+        }
+        if (colIdx.length != val.length || rowPtr[row] != val.length) {
+            throw new IllegalArgumentException("colIdx, val and rowPtr[row] must be same size.");
+        }
+        this.row = row;
+        this.col = col;
+        this.rowPtr = rowPtr;
+        this.colIdx = colIdx;
+        this.val = val;
+    }
+
+    /**
+     * Constructor.
+     * <pre>
+     * compress dense matrix. zero elements are dropped.
+     * </pre>
+     * @param dense dense matrix
+     */
+    public SparseMatrix(final Matrix dense) {
+        this.row = dense.getRowSize();
+        this.col = dense.getColSize();
+        this.rowPtr = new int[row + 1];
+
+        float[] src = dense.getAry();
+        int nnz = 0;
+        for (float v : src) {
+            if (v != 0.0f) {
+                nnz += 1;
+            }
+        }
+        this.colIdx = new int[nnz];
+        this.val = new float[nnz];
+
+        int k = 0;
+        for (int r = 0; r < row; r++) {
+            rowPtr[r] = k;
+            for (int c = 0; c < col; c++) {
+                float v = src[r * col + c];
+                if (v != 0.0f) {
+                    colIdx[k] = c;
+                    val[k] = v;
+                    k += 1;
+                }
+            }
+        }
+        rowPtr[row] = k;
+    }
+
+    public SparseMatrix(final float[][] initval) {
+        this(new Matrix(initval));
+    }
+
+    @Override
+    public int getColSize() {
+        return col;
+    }
+
+    @Override
+    public int getRowSize() {
+        return row;
+    }
+
+    /**
+     * get size.
+     * @return number of non-zero elements
+     */
+    @Override
+    public int getSize() {
+        return val.length;
+    }
+
+    /**
+     * get size of index.
+     * @return number of rowPtr and colIdx elements
+     */
+    public int getIndexSize() {
+        return rowPtr.length + colIdx.length;
+    }
+
+    public int[] getRowPtr() {
+        return rowPtr;
+    }
+
+    public int[] getColIdx() {
+        return colIdx;
+    }
+
+    public float[] getVal() {
+        return val;
+    }
+
+    @Override
+    public float getVal(final int row, final int col) {
+        int p = Arrays.binarySearch(colIdx, rowPtr[row], rowPtr[row + 1], col);
+        return p < 0 ? 0.0f : val[p];
+    }
+
+    /**
+     * copy all (deep copy).
+     *
+     * @return whole copy of this matrix
+     */
+    public SparseMatrix copyAll() {
+        return new SparseMatrix(row, col,
+                Arrays.copyOf(rowPtr, rowPtr.length),
+                Arrays.copyOf(colIdx, colIdx.length),
+                Arrays.copyOf(val, val.length));
+    }
+
+    /**
+     * convert to dense matrix.
+     * @return dense matrix
+     */
+    public Matrix toMatrix() {
+        Matrix dense = new Matrix(row, col);
+        float[] dst = dense.getAry();
+        for (int r = 0; r < row; r++) {
+            for (int k = rowPtr[r]; k < rowPtr[r + 1]; k++) {
+                dst[r * col + colIdx[k]] = val[k];
+            }
+        }
+        return dense;
+    }
+
+    @Override
+    public float[][] getData() {
+        return toMatrix().getData();
+    }
+
+    /**
+     * copy containts data to ary.
+     * <pre>
+     * only non-zero elements are copied.
+     * </pre>
+     * @param ary data array
+     * @param p write pointer
+     * @return next pointer
+     */
+    @Override
+    public int accept(float[] ary, int p) {
+        System.arraycopy(val, 0, ary, p, val.length);
+        return p + val.length;
+    }
+
+    /**
+     * copy index to idx.
+     * <pre>
+     * idx
+     * |rowPtr ... colIdx ...|
+     * </pre>
+     * @param idx index array
+     * @param p write pointer
+     * @return next pointer
+     */
+    public int acceptIndex(int[] idx, int p) {
+        System.arraycopy(rowPtr, 0, idx, p, rowPtr.length);
+        p += rowPtr.length;
+        System.arraycopy(colIdx, 0, idx, p, colIdx.length);
+        return p + colIdx.length;
+    }
+
+    @Override
+    public String toString() {
+        return toMatrix().toString();
+    }
+}
@@ -14,11 +14,6 @@ public class Vector extends Matrix {
     }
     
     public Vector(float[] initval) {
-        super(initval.length, 1);
-        
-        int row = 0;
-        for (float val : initval) {
-            setVal(row, 1, val);
-        }
+        super(initval, 0, initval.length, 1);
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Factorization cache test of collected source matrixes.
+ * <pre>
+ * In com.matarapi to call the package-private MatFactorCache.enqueue(),
+ * so the test doesn't depend on System.gc().
+ * </pre>
+ *
+ * @author atsushi
+ */
+public class MatFactorCacheCollectTest {
+
+    private static Matrix system() {
+        return new Matrix(new float[][]{
+            {2.0f, 5.0f, 7.0f, 8.0f},
+            {4.0f, 13.0f, 20.0f, 25.0f},
+            {8.0f, 29.0f, 50.0f, 71.0f},
+            {10.0f, 34.0f, 78.0f, 98.0f},
+        });
+    }
+
+    @Test
+    public void collectedTest() throws Exception {
+        MatFactorCache cache = new MatFactorCache(1L << 20);
+        Matrix a = system();
+        Matrix b = system();
+        MatFactorCache.LU lu = cache.lu(a);
+        MatFactorCache.LU lub = cache.lu(b);
+        assertEquals(2, cache.size());
+        assertEquals(160, cache.getBytes());
+
+        // the entry of a collected matrix is removed at the next access.
+        cache.enqueue(b);
+        assertEquals(1, cache.size());
+        assertEquals(80, cache.getBytes());
+        assertSame(lu, cache.lu(a));
+
+        // b is factorized again.
+        assertNotSame(lub, cache.lu(b));
+        assertEquals(2, cache.size());
+        assertEquals(160, cache.getBytes());
+    }
+}
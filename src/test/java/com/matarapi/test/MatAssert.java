@@ -7,6 +7,7 @@ import com.matarapi.IMatrix;
 import com.matarapi.MatKernel;
 import com.matarapi.Matrix;
 import com.matarapi.MockMatrix;
+import java.util.Random;
 import org.junit.Assert;
 import static org.junit.Assert.assertEquals;
 
@@ -63,4 +64,64 @@ public class MatAssert {
         
         assertMatrix(expect, actual, delta);
     }
+
+    /**
+     * random matrix. elements in [-1, 1)
+     *
+     * @param row row size
+     * @param col col size
+     * @param seed random seed
+     * @return matrix
+     */
+    public static Matrix random(final int row, final int col, final int seed) {
+        Matrix m = new Matrix(row, col);
+        Random rnd = new Random(seed);
+        for (int cnt = 0; cnt < m.getSize(); cnt++) {
+            m.getAry()[cnt] = rnd.nextFloat() * 2.0f - 1.0f;
+        }
+        return m;
+    }
+
+    /**
+     * symmetric positive-definite matrix. (A^T A + n E, A : random)
+     *
+     * @param size row and col size
+     * @param seed random seed
+     * @return matrix
+     */
+    public static Matrix spd(final int size, final int seed) {
+        Matrix a = random(size, size, seed);
+        Matrix spd = new Matrix(size, size);
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                float sum = r == c ? size : 0.0f;
+                for (int k = 0; k < size; k++) {
+                    sum += a.getVal(k, r) * a.getVal(k, c);
+                }
+                spd.setVal(r, c, sum);
+            }
+        }
+        return spd;
+    }
+
+    /**
+     * multiple on the host. (reference of kernel results)
+     *
+     * @param a matrix
+     * @param b matrix
+     * @return a X b
+     */
+    public static Matrix mul(final Matrix a, final Matrix b) {
+        Matrix out = new Matrix(a.getRowSize(), b.getColSize());
+        for (int r = 0; r < a.getRowSize(); r++) {
+            for (int c = 0; c < b.getColSize(); c++) {
+                float sum = 0.0f;
+                for (int k = 0; k < a.getColSize(); k++) {
+                    sum += a.getVal(r, k) * b.getVal(k, c);
+                }
+                out.setVal(r, c, sum);
+            }
+        }
+        return out;
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.MatCG;
+import com.matarapi.MatKernel;
+import com.matarapi.Matrix;
+import com.matarapi.SparseMatrix;
+import static com.matarapi.test.MatAssert.random;
+import static com.matarapi.test.MatAssert.spd;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * CG / BiCGSTAB test.
+ *
+ * @author atsushi
+ */
+public class MatCGTest {
+
+    /**
+     * tridiagonal matrix. |diag lower upper|
+     */
+    private static Matrix band(final int size, final float diag, final float lower, final float upper) {
+        Matrix a = new Matrix(size, size);
+        for (int r = 0; r < size; r++) {
+            a.setVal(r, r, diag);
+            if (r > 0) {
+                a.setVal(r, r - 1, lower);
+            }
+            if (r < size - 1) {
+                a.setVal(r, r + 1, upper);
+            }
+        }
+        return a;
+    }
+
+    /**
+     * |b - A x| / |b|
+     */
+    private static float residual(final Matrix a, final Matrix x, final Matrix b) {
+        int n = b.getRowSize();
+        double rr = 0.0;
+        double bb = 0.0;
+        for (int r = 0; r < n; r++) {
+            double sum = 0.0;
+            for (int c = 0; c < n; c++) {
+                sum += (double) a.getVal(r, c) * x.getVal(c, 0);
+            }
+            double d = b.getVal(r, 0) - sum;
+            rr += d * d;
+            bb += (double) b.getVal(r, 0) * b.getVal(r, 0);
+        }
+        return (float) Math.sqrt(rr / bb);
+    }
+
+    @Test
+    public void cgDenseTest() {
+        final int size = 100;
+        Matrix a = spd(size, 11);
+        Matrix b = random(size, 1, 12);
+
+        MatCG cg = new MatCG(a);
+        cg.setTolerance(1.0e-5f);
+        Matrix x = cg.solve(b);
+
+        // running on OpenCL?
+        MatKernel kernel = cg.getKernel();
+        assertTrue(kernel.isRunningCL());
+
+        assertTrue(cg.isConverged());
+        assertTrue(cg.getResidual() <= 1.0e-5f);
+        assertTrue(cg.getIterations() < size);
+        assertEquals(0.0f, residual(a, x, b), 1.0e-4f);
+    }
+
+    @Test
+    public void cgSparseTest() {
+        final int size = 300;
+        Matrix a = band(size, 4.0f, -1.0f, -1.0f);
+        Matrix b = random(size, 1, 13);
+
+        MatCG cg = new MatCG(new SparseMatrix(a));
+        cg.setCheckInterval(4);
+        Matrix x = cg.solve(b);
+
+        // running on OpenCL?
+        MatKernel kernel = cg.getKernel();
+        assertTrue(kernel.isRunningCL());
+
+        assertTrue(cg.getResidual() <= 1.0e-5f);
+        assertEquals(0.0f, residual(a, x, b), 1.0e-4f);
+
+        // the same workspace is reused for another right-hand side.
+        Matrix b2 = random(size, 1, 14);
+        Matrix x2 = cg.solve(b2);
+        assertEquals(0.0f, residual(a, x2, b2), 1.0e-4f);
+    }
+
+    @Test
+    public void bicgstabTest() {
+        final int size = 200;
+        // non-symmetric
+        Matrix a = band(size, 4.0f, -1.0f, -2.0f);
+        Matrix b = random(size, 1, 15);
+
+        MatCG cg = new MatCG(new SparseMatrix(a));
+        Matrix x = cg.solveBiCGSTAB(b);
+
+        // running on OpenCL?
+        MatKernel kernel = cg.getKernel();
+        assertTrue(kernel.isRunningCL());
+
+        assertTrue(cg.getResidual() <= 1.0e-5f);
+        assertEquals(0.0f, residual(a, x, b), 1.0e-4f);
+
+        Matrix d = band(size, 5.0f, 1.0f, -2.0f);
+        MatCG dense = new MatCG(d);
+        Matrix y = dense.solveBiCGSTAB(b);
+        assertEquals(0.0f, residual(d, y, b), 1.0e-4f);
+    }
+
+    /**
+     * r0.A r0 = 0 at the first step. (rotation)
+     * the solvers stop and report non-convergence instead of NaN.
+     */
+    @Test
+    public void breakdownTest() {
+        Matrix a = new Matrix(new float[][]{
+            {0.0f, 1.0f},
+            {-1.0f, 0.0f}
+        });
+        Matrix b = new Matrix(new float[][]{
+            {1.0f},
+            {0.0f}
+        });
+
+        MatCG cg = new MatCG(a);
+        Matrix x = cg.solveBiCGSTAB(b);
+
+        // running on OpenCL?
+        MatKernel kernel = cg.getKernel();
+        assertTrue(kernel.isRunningCL());
+
+        assertFalse(cg.isConverged());
+        assertEquals(0, cg.getIterations());
+        assertEquals(1.0f, cg.getResidual(), 1.0e-6f);
+        assertEquals(0.0f, x.getVal(0, 0), 0.0f);
+        assertEquals(0.0f, x.getVal(1, 0), 0.0f);
+
+        // p.A p = 0 for CG. (not positive-definite)
+        x = cg.solve(b);
+        assertFalse(cg.isConverged());
+        assertEquals(0, cg.getIterations());
+        assertFalse(Float.isNaN(x.getVal(0, 0)));
+    }
+
+    /**
+     * the iterations don't depend on the check interval
+     * and don't exceed max iterations.
+     */
+    @Test
+    public void iterationsTest() {
+        final int size = 100;
+        Matrix a = spd(size, 16);
+        Matrix b = random(size, 1, 17);
+
+        MatCG cg = new MatCG(a);
+        cg.setCheckInterval(1);
+        cg.solve(b);
+
+        // running on OpenCL?
+        MatKernel kernel = cg.getKernel();
+        assertTrue(kernel.isRunningCL());
+
+        assertTrue(cg.isConverged());
+        int expected = cg.getIterations();
+        cg.setCheckInterval(7);
+        cg.solve(b);
+        assertTrue(cg.isConverged());
+        assertEquals(expected, cg.getIterations());
+
+        cg.setTolerance(0.0f);
+        cg.setMaxIterations(15);
+        cg.setCheckInterval(10);
+        cg.solve(b);
+        assertFalse(cg.isConverged());
+        assertEquals(15, cg.getIterations());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.MatKernel;
+import com.matarapi.MatSolver;
+import com.matarapi.Matrix;
+import com.matarapi.MockMatrix;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import static com.matarapi.test.MatAssert.spd;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Cholesky decomposition test.
+ *
+ * @author atsushi
+ */
+public class MatCholeskyTest {
+
+    private static final int NB = 8;
+
+    private static Matrix mulLLt(final Matrix l) {
+        int n = l.getColSize();
+        Matrix out = new Matrix(n, n);
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                float sum = 0.0f;
+                for (int k = 0; k <= Math.min(r, c); k++) {
+                    sum += l.getVal(r, k) * l.getVal(c, k);
+                }
+                out.setVal(r, c, sum);
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void hostTest() {
+        // bigger than the block size of toCholesky()
+        Matrix a = spd(130, 1);
+        Matrix l = a.copyAll().toCholesky().copyL();
+
+        assertMatrix(a, mulLLt(l), 1.0E-2f);
+    }
+
+    @Test
+    public void kernelTest() {
+        final int size = 29;
+        Matrix a = spd(size, 2);
+        Matrix x = new Matrix(size, 3);
+        for (int cnt = 0; cnt < x.getSize(); cnt++) {
+            x.getAry()[cnt] = cnt % 5 - 2.0f;
+        }
+        Matrix b = new Matrix(size, 3);
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < 3; c++) {
+                float sum = 0.0f;
+                for (int k = 0; k < size; k++) {
+                    sum += a.getVal(r, k) * x.getVal(k, c);
+                }
+                b.setVal(r, c, sum);
+            }
+        }
+
+        MatKernel kernel = new MatKernel(a, b, new MockMatrix(size, 3)) {
+            final int passes = passesCholesky(0, NB);
+
+            @Override
+            public void run() {
+                int pass = getPassId();
+                if (pass < passes) {
+                    matCholesky(0, NB, pass);
+                } else {
+                    matSolveCholesky(0, 1, 2);
+                }
+            }
+        };
+        kernel.execute(size * size, kernel.passesCholesky(0, NB) + 1);
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        Matrix l = kernel.getMat(0).copyL();
+        assertMatrix(a, mulLLt(l), 1.0E-3f);
+        assertMatrix(x, kernel.getMat(2), 1.0E-3f);
+
+        // host solve
+        assertMatrix(x, MatSolver.solveSPD(a, b), 1.0E-3f);
+    }
+}
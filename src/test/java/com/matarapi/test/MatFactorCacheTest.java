@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.MatFactorCache;
+import com.matarapi.Matrix;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Factorization cache test.
+ *
+ * @author atsushi
+ */
+public class MatFactorCacheTest {
+
+    private static Matrix system() {
+        return new Matrix(new float[][]{
+            {2.0f, 5.0f, 7.0f, 8.0f},
+            {4.0f, 13.0f, 20.0f, 25.0f},
+            {8.0f, 29.0f, 50.0f, 71.0f},
+            {10.0f, 34.0f, 78.0f, 98.0f},
+        });
+    }
+
+    @Test
+    public void reuseTest() throws Exception {
+        MatFactorCache cache = new MatFactorCache(1L << 20);
+        Matrix a = system();
+        Matrix original = a.copyAll();
+        Matrix b = new Matrix(new float[][]{
+            {1.0f}, {2.0f}, {3.0f}, {4.0f}
+        });
+
+        MatFactorCache.LU lu = cache.lu(a);
+        assertSame(lu, cache.lu(a));
+        // same values, but another matrix
+        assertNotSame(lu, cache.lu(a.copyAll()));
+        // the source is not changed
+        assertMatrix(original, a, 0.0f);
+
+        Matrix x = cache.solve(a, b);
+        assertSame(lu, cache.lu(a));
+
+        // modification invalidates the entry
+        a.setVal(0, 0, 3.0f);
+        MatFactorCache.LU lu2 = cache.lu(a);
+        assertNotSame(lu, lu2);
+        assertSame(lu2, cache.lu(a));
+
+        a.setVal(0, 0, 2.0f);
+        assertMatrix(x, cache.solve(a, b), 1.0E-5f);
+    }
+
+    @Test
+    public void evictionTest() throws Exception {
+        // room for two 4x4 LU (64 + 16 bytes each)
+        MatFactorCache cache = new MatFactorCache(160);
+        Matrix a1 = system();
+        Matrix a2 = system();
+        Matrix a3 = system();
+
+        MatFactorCache.LU lu1 = cache.lu(a1);
+        MatFactorCache.LU lu2 = cache.lu(a2);
+        // a1 is used recently
+        assertSame(lu1, cache.lu(a1));
+        cache.lu(a3);
+
+        assertEquals(2, cache.size());
+        assertEquals(160, cache.getBytes());
+        // a2 is evicted
+        assertSame(lu1, cache.lu(a1));
+        assertNotSame(lu2, cache.lu(a2));
+    }
+
+    @Test
+    public void viewTest() throws Exception {
+        MatFactorCache cache = new MatFactorCache(1L << 20);
+        Matrix a = system();
+
+        MatFactorCache.LU lu = cache.lu(a);
+        // modification through a view invalidates the entry too
+        a.view().sub(1, 1, 2, 2).transpose().setVal(0, 1, 1.0f);
+        assertEquals(1.0f, a.getVal(2, 1), 0.0f);
+        assertNotSame(lu, cache.lu(a));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.IMatrix;
+import com.matarapi.MatFusion;
+import com.matarapi.MatKernel;
+import com.matarapi.Matrix;
+import com.matarapi.MockMatrix;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Fused operation test.
+ *
+ * @author atsushi
+ */
+public class MatFusionTest {
+
+    Matrix m0 = new Matrix(new float[][]{
+        {1.0f, 2.0f, 3.0f},
+        {4.0f, 5.0f, 6.0f},
+        {7.0f, 8.0f, 9.0f}
+    });
+    Matrix m1 = new Matrix(new float[][]{
+        {1.0f, 0.0f, 0.0f},
+        {0.0f, -1.0f, 0.0f},
+        {0.0f, 0.0f, 1.0f}
+    });
+    Matrix bias = new Matrix(new float[][]{
+        {1.0f, 1.0f, 1.0f},
+        {-1.0f, -1.0f, -1.0f},
+        {0.0f, 0.0f, -10.0f}
+    });
+
+    @Test
+    public void layerTest() {
+
+        IMatrix out = new MockMatrix(3, 3);
+
+        MatKernel kernel = new MatKernel(m0, m1, bias, out) {
+            final int layer = fuse(MatFusion.mul(0, 1).add(2).reLu().into(3));
+
+            @Override
+            public void run() {
+                matFused(layer);
+            }
+        };
+
+        kernel.execute(out.getSize());
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        float[][] expected = new float[][]{
+            {2.0f, 0.0f, 4.0f},
+            {3.0f, 0.0f, 5.0f},
+            {7.0f, 0.0f, 0.0f}
+        };
+
+        assertMatrix(expected, kernel.getMat(3), 1.0E-6f);
+    }
+
+    @Test
+    public void chainTest() {
+
+        IMatrix out = new MockMatrix(3, 3);
+
+        MatKernel kernel = new MatKernel(m0, m1, bias, out) {
+            final int grad = fuse(MatFusion.load(0).sub(2).dReLu().hmul(1).into(3));
+            final int update = fuse(MatFusion.load(3).add(0).into(3));
+
+            @Override
+            public void run() {
+                int pass = getPassId();
+                if (0 == pass) {
+                    matFused(grad);
+                } else if (1 == pass) {
+                    matFused(update);
+                }
+            }
+        };
+
+        kernel.execute(out.getSize(), 2);
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        float[][] expected = new float[][]{
+            {2.0f, 2.0f, 3.0f},
+            {4.0f, 4.0f, 6.0f},
+            {7.0f, 8.0f, 10.0f}
+        };
+
+        assertMatrix(expected, kernel.getMat(3), 1.0E-6f);
+    }
+}
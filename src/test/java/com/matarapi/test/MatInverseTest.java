@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.MatInverse;
+import com.matarapi.MatKernel;
+import com.matarapi.Matrix;
+import static com.matarapi.test.MatAssert.assertMatrixInvert;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Matrix inverse test.
+ *
+ * @author atsushi
+ */
+public class MatInverseTest {
+
+    @Test
+    public void inverseTest() {
+        Matrix m0 = new Matrix(new float[][]{
+            {2.0f, 5.0f, 7.0f, 8.0f},
+            {4.0f, 13.0f, 20.0f, 25.0f},
+            {8.0f, 29.0f, 50.0f, 71.0f},
+            {10.0f, 34.0f, 78.0f, 98.0f},
+        });
+
+        assertMatrixInvert(m0, MatInverse.invert(m0), 1.0E-5f);
+    }
+
+    @Test
+    public void reuseTest() {
+        final int size = 40;
+        MatInverse inv = new MatInverse(size);
+        Random rnd = new Random(1);
+        for (int cnt = 0; cnt < 3; cnt++) {
+            Matrix a = new Matrix(size, size);
+            for (int p = 0; p < a.getSize(); p++) {
+                a.getAry()[p] = rnd.nextFloat() * 2.0f - 1.0f;
+            }
+            for (int p = 0; p < size; p++) {
+                a.setVal(p, p, a.getVal(p, p) + 4.0f);
+            }
+            assertMatrixInvert(a, inv.inverse(a), 1.0E-4f);
+        }
+    }
+
+    @Test
+    public void forkJoinTest() {
+        final int size = 20;
+        Matrix a = new Matrix(size, size);
+        for (int p = 0; p < a.getSize(); p++) {
+            a.getAry()[p] = (p * 7) % 13 - 6.0f;
+        }
+        for (int p = 0; p < size; p++) {
+            a.setVal(p, p, a.getVal(p, p) + 20.0f);
+        }
+        MatInverse inv = new MatInverse(size);
+        inv.getKernel().setEngine(MatKernel.Engine.FORK_JOIN);
+
+        assertMatrixInvert(a, inv.inverse(a), 1.0E-4f);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.IMatrix;
+import com.matarapi.MatKernel;
+import com.matarapi.Matrix;
+import com.matarapi.MockMatrix;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import static com.matarapi.test.MatAssert.assertMatrixInvert;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Fork-Join engine test.
+ *
+ * @author atsushi
+ */
+public class MatKernelForkJoinTest {
+
+    Matrix m0 = new Matrix(new float[][]{
+        {1.0f, 2.0f, 3.0f},
+        {4.0f, 5.0f, 6.0f},
+        {7.0f, 8.0f, 9.0f}
+    });
+    Matrix m1 = new Matrix(new float[][]{
+        {10.0f, 11.0f, 12.0f},
+        {13.0f, 14.0f, 15.0f},
+        {16.0f, 17.0f, 18.0f}
+    });
+
+    @Test
+    public void mulAddTest() {
+
+        IMatrix mul = new MockMatrix(3, 3);
+        IMatrix out = new MockMatrix(3, 3);
+
+        MatKernel kernel = new MatKernel(m0, m1, mul, out) {
+
+            @Override
+            public void run() {
+                int pass = getPassId();
+                if (0 == pass) {
+                    matMul(0, 1, 2);
+                } else if (1 == pass) {
+                    matAdd(2, 1, 3);
+                }
+            }
+        };
+        kernel.setEngine(MatKernel.Engine.FORK_JOIN);
+
+        kernel.execute(out.getSize(), 2);
+
+        // not running on OpenCL.
+        assertTrue(kernel.isForkJoin());
+        assertFalse(kernel.isRunningCL());
+
+        float[][] expected = new float[][]{
+            {94.0f, 101.0f, 108.0f},
+            {214.0f, 230.0f, 246.0f},
+            {334.0f, 359.0f, 384.0f}
+        };
+
+        assertMatrix(expected, kernel.getMat(3), 1.0E-6f);
+    }
+
+    @Test
+    public void invLTest() {
+
+        Matrix l = m0.copyL();
+        IMatrix invL = new MockMatrix(3, 3);
+
+        MatKernel kernel = new MatKernel(m0, invL) {
+
+            @Override
+            public void run() {
+                matInvL(0, 1);
+            }
+        };
+        kernel.setEngine(MatKernel.Engine.FORK_JOIN);
+
+        // !important, the arg is not rox*col. see javadoc
+        kernel.execute(m0.getColSize());
+
+        assertMatrixInvert(l, kernel.getMat(1), 1.0E-6f);
+    }
+
+    @Test
+    public void bigMulTest() {
+
+        final int size = 64;
+        Matrix a = new Matrix(size, size);
+        Matrix b = new Matrix(size, size).toE();
+        for (int cnt = 0; cnt < a.getSize(); cnt++) {
+            a.getAry()[cnt] = cnt % 7;
+        }
+        IMatrix out = new MockMatrix(size, size);
+
+        MatKernel kernel = new MatKernel(a, b, out) {
+
+            @Override
+            public void run() {
+                matMul(0, 1, 2);
+            }
+        };
+        kernel.setEngine(MatKernel.Engine.FORK_JOIN);
+
+        kernel.execute(out.getSize());
+
+        assertMatrix(a, kernel.getMat(2), 1.0E-6f);
+    }
+}
@@ -5,9 +5,13 @@ package com.matarapi.test;
 
 import com.matarapi.IMatrix;
 import com.matarapi.MatKernel;
+import com.matarapi.MatSolver;
 import com.matarapi.Matrix;
 import com.matarapi.MockMatrix;
+import java.util.Random;
 import static com.matarapi.test.MatAssert.assertMatrix;
+import static com.matarapi.test.MatAssert.random;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 import static com.matarapi.test.MatAssert.assertMatrixInvert;
@@ -148,4 +152,120 @@ public class MatKernelLUTest {
         
         assertMatrixInvert(l, invL, 1.0E-6f);
     }
+
+    private static final int NB = 8;
+
+    @Test
+    public void luTest() throws Exception {
+        final int size = 37;
+        Matrix a = random(size, size, 1);
+        Matrix expected = a.copyAll();
+        int[] order = expected.toLU();
+
+        IMatrix piv = new MockMatrix(1, size);
+        MatKernel kernel = new MatKernel(a, piv) {
+
+            @Override
+            public void run() {
+                matLU(0, 1, NB, getPassId());
+            }
+        };
+        kernel.setTile(4);
+        kernel.execute(kernel.rangeLU(0), kernel.passesLU(0, NB));
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        Matrix p = kernel.getMat(1);
+        for (int cnt = 0; cnt < size; cnt++) {
+            assertEquals(order[cnt], (int) p.getVal(0, cnt));
+        }
+        assertMatrix(expected, kernel.getMat(0), 1.0E-4f);
+    }
+
+    @Test
+    public void luMulTest() {
+        Matrix a = new Matrix(new float[][]{
+            {2.0f, 5.0f, 7.0f, 8.0f},
+            {4.0f, 13.0f, 20.0f, 25.0f},
+            {8.0f, 29.0f, 50.0f, 71.0f},
+            {10.0f, 34.0f, 78.0f, 98.0f},
+        });
+        Matrix original = a.copyAll();
+
+        IMatrix work = new MockMatrix(4, 4);
+        MatKernel kernel = new MatKernel(a, new MockMatrix(1, 4), work) {
+
+            @Override
+            public void run() {
+                matLU(0, 1, 2, getPassId());
+            }
+        };
+        kernel.setTile(2);
+        kernel.execute(kernel.rangeLU(0), kernel.passesLU(0, 2));
+
+        // L U => mul, then revert pivoting
+        Matrix p = kernel.getMat(1);
+        final int[] order = new int[4];
+        for (int cnt = 0; cnt < 4; cnt++) {
+            order[cnt] = (int) p.getVal(0, cnt);
+        }
+        MatKernel mul = new MatKernel(kernel.getMat(0), work) {
+
+            @Override
+            public void run() {
+                int pass = getPassId();
+                if (0 == pass) {
+                    matMulLU(0, 1);
+                } else if (1 == pass) {
+                    matSortRow(1, 0, order);
+                }
+            }
+        };
+        mul.execute(16, 2);
+
+        assertMatrix(original, mul.getMat(0), 1.0E-5f);
+    }
+
+    @Test
+    public void trsmTest() throws Exception {
+        final int size = 21;
+        final int rhs = 5;
+        Matrix lu = random(size, size, 2);
+        final int[] order = lu.toLU();
+        Matrix b = new Matrix(size, rhs);
+        Random rnd = new Random(3);
+        for (int cnt = 0; cnt < b.getSize(); cnt++) {
+            b.getAry()[cnt] = rnd.nextFloat();
+        }
+        // P B
+        Matrix pb = new Matrix(size, rhs);
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < rhs; c++) {
+                pb.setVal(r, c, b.getVal(order[r], c));
+            }
+        }
+
+        MatKernel kernel = new MatKernel(lu, pb) {
+            final int passes = passesTrsm(0, NB);
+
+            @Override
+            public void run() {
+                int pass = getPassId();
+                if (pass < passes) {
+                    // L Y = P B
+                    matTrsmL(0, 1, NB, pass);
+                } else {
+                    // U X = Y
+                    matTrsmU(0, 1, NB, pass - passes);
+                }
+            }
+        };
+        kernel.execute(size * rhs, kernel.passesTrsm(0, NB) * 2);
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        assertMatrix(MatSolver.solveLU(lu, order, b), kernel.getMat(1), 1.0E-3f);
+    }
 }
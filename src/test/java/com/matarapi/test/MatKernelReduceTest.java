@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.MatKernel;
+import com.matarapi.Matrix;
+import com.matarapi.MockMatrix;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Reduction test.
+ *
+ * @author atsushi
+ */
+public class MatKernelReduceTest {
+
+    private static final int ROW = 3;
+    private static final int COL = 37;
+    /**
+     * work groups of the first stage of matReduceAll.
+     */
+    private static final int GROUPS = 3;
+
+    private Matrix input() {
+        Matrix m = new Matrix(ROW, COL);
+        for (int r = 0; r < ROW; r++) {
+            for (int c = 0; c < COL; c++) {
+                m.setVal(r, c, ((r * 7 + c * 13) % 23) - 11.0f);
+            }
+        }
+        return m;
+    }
+
+    private MatKernel kernel(final Matrix in, final int op) {
+        MatKernel kernel = new MatKernel(in, new MockMatrix(ROW, 1), new MockMatrix(1, COL), new MockMatrix(1, 1),
+                new MockMatrix(2, GROUPS)) {
+
+            @Override
+            public void run() {
+                int pass = getPassId();
+                if (0 == pass) {
+                    matReduceRow(0, 1, op);
+                } else if (1 == pass) {
+                    matReduceCol(0, 2, op);
+                } else {
+                    matReduceAll(0, 4, 3, op, pass - 2);
+                }
+            }
+        };
+        // 16 work items per group. each work item folds some elements.
+        kernel.setTile(4);
+        return kernel;
+    }
+
+    private void check(final int op) {
+        Matrix in = input();
+        MatKernel kernel = kernel(in, op);
+
+        kernel.execute(kernel.rangeReduce(COL), 4);
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        Matrix rows = new Matrix(ROW, 1);
+        Matrix cols = new Matrix(1, COL);
+        float[] all = new float[ROW * COL];
+        for (int r = 0; r < ROW; r++) {
+            float[] line = new float[COL];
+            for (int c = 0; c < COL; c++) {
+                line[c] = in.getVal(r, c);
+                all[r * COL + c] = line[c];
+            }
+            rows.setVal(r, 0, reduce(line, op));
+        }
+        for (int c = 0; c < COL; c++) {
+            float[] line = new float[ROW];
+            for (int r = 0; r < ROW; r++) {
+                line[r] = in.getVal(r, c);
+            }
+            cols.setVal(0, c, reduce(line, op));
+        }
+
+        assertMatrix(rows, kernel.getMat(1), 1.0E-4f);
+        assertMatrix(cols, kernel.getMat(2), 1.0E-4f);
+        assertEquals(reduce(all, op), kernel.getMat(3).getVal(0, 0), 1.0E-3f);
+    }
+
+    private static float reduce(final float[] line, final int op) {
+        float acc = line[0];
+        int arg = 0;
+        float sq = 0.0f;
+        for (int cnt = 0; cnt < line.length; cnt++) {
+            float v = line[cnt];
+            sq += v * v;
+            if (MatKernel.REDUCE_SUM == op && cnt > 0) {
+                acc += v;
+            } else if (MatKernel.REDUCE_MIN == op) {
+                acc = Math.min(acc, v);
+            } else if (MatKernel.REDUCE_SUM != op && v > acc) {
+                acc = v;
+                arg = cnt;
+            }
+        }
+        if (MatKernel.REDUCE_NORM == op) {
+            return (float) Math.sqrt(sq);
+        }
+        if (MatKernel.REDUCE_ARGMAX == op) {
+            return arg;
+        }
+        return acc;
+    }
+
+    @Test
+    public void sumTest() {
+        check(MatKernel.REDUCE_SUM);
+    }
+
+    @Test
+    public void maxTest() {
+        check(MatKernel.REDUCE_MAX);
+    }
+
+    @Test
+    public void minTest() {
+        check(MatKernel.REDUCE_MIN);
+    }
+
+    @Test
+    public void argmaxTest() {
+        check(MatKernel.REDUCE_ARGMAX);
+    }
+
+    @Test
+    public void normTest() {
+        check(MatKernel.REDUCE_NORM);
+    }
+
+    /**
+     * matReduceAll over many work groups.
+     * the max is in the last group, and the same max value appears
+     * in two groups. (the first index wins)
+     */
+    @Test
+    public void reduceAllTest() {
+        final int size = 1000;
+        final int groups = 5;
+        Matrix in = new Matrix(1, size);
+        for (int cnt = 0; cnt < size; cnt++) {
+            in.setVal(0, cnt, ((cnt * 13) % 29) - 14.0f);
+        }
+        in.setVal(0, 990, 20.0f);
+        in.setVal(0, 995, 20.0f);
+        in.setVal(0, 3, -20.0f);
+
+        int[] ops = {MatKernel.REDUCE_SUM, MatKernel.REDUCE_MAX, MatKernel.REDUCE_MIN,
+            MatKernel.REDUCE_ARGMAX, MatKernel.REDUCE_NORM};
+        for (int op : ops) {
+            MatKernel kernel = new MatKernel(in, new MockMatrix(2, groups), new MockMatrix(1, 1)) {
+
+                @Override
+                public void run() {
+                    matReduceAll(0, 1, 2, op, getPassId());
+                }
+            };
+            kernel.setTile(4);
+
+            kernel.execute(kernel.rangeReduce(groups), 2);
+
+            // running on OpenCL?
+            assertTrue(kernel.isRunningCL());
+
+            float[] all = new float[size];
+            for (int cnt = 0; cnt < size; cnt++) {
+                all[cnt] = in.getVal(0, cnt);
+            }
+            assertEquals(reduce(all, op), kernel.getMat(2).getVal(0, 0), 1.0E-2f);
+            if (MatKernel.REDUCE_ARGMAX == op) {
+                assertEquals(990.0f, kernel.getMat(2).getVal(0, 0), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void softmaxTest() {
+        Matrix logits = new Matrix(new float[][]{
+            {1.0f, 2.0f, 3.0f},
+            {1000.0f, 1000.0f, -1000.0f}
+        });
+        Matrix target = new Matrix(new float[][]{
+            {0.0f, 0.0f, 1.0f},
+            {1.0f, 0.0f, 0.0f}
+        });
+
+        MatKernel kernel = new MatKernel(logits, target, new MockMatrix(2, 3), new MockMatrix(2, 3), new MockMatrix(2, 1)) {
+
+            @Override
+            public void run() {
+                if (0 == getPassId()) {
+                    matSoftmax(0, 2);
+                } else {
+                    matSoftmaxCE(0, 1, 3, 4);
+                }
+            }
+        };
+        kernel.setTile(2);
+
+        kernel.execute(kernel.rangeReduce(2), 2);
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        float e1 = (float) Math.exp(-1.0);
+        float e2 = (float) Math.exp(-2.0);
+        float s = 1.0f + e1 + e2;
+        float[][] expected = new float[][]{
+            {e2 / s, e1 / s, 1.0f / s},
+            {0.5f, 0.5f, 0.0f}
+        };
+        assertMatrix(expected, kernel.getMat(2), 1.0E-6f);
+
+        expected = new float[][]{
+            {e2 / s, e1 / s, 1.0f / s - 1.0f},
+            {-0.5f, 0.5f, 0.0f}
+        };
+        assertMatrix(expected, kernel.getMat(3), 1.0E-6f);
+
+        expected = new float[][]{
+            {(float) Math.log(s)},
+            {(float) Math.log(2.0)}
+        };
+        assertMatrix(expected, kernel.getMat(4), 1.0E-5f);
+    }
+}
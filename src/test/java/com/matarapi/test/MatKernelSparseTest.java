@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.IMatrix;
+import com.matarapi.MatKernel;
+import com.matarapi.MatSimd;
+import com.matarapi.Matrix;
+import com.matarapi.MockMatrix;
+import com.matarapi.MockVector;
+import com.matarapi.SparseMatrix;
+import com.matarapi.Vector;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Sparse matrix calculation test.
+ *
+ * @author atsushi
+ */
+public class MatKernelSparseTest {
+
+    Matrix d0 = new Matrix(new float[][]{
+        {1.0f, 0.0f, 2.0f},
+        {0.0f, -3.0f, 0.0f},
+        {0.0f, 0.0f, 4.0f}
+    });
+    SparseMatrix s0 = new SparseMatrix(d0);
+    Matrix m1 = new Matrix(new float[][]{
+        {10.0f, 11.0f, 12.0f},
+        {13.0f, 14.0f, 15.0f},
+        {16.0f, 17.0f, 18.0f}
+    });
+
+    @Test
+    public void csrTest() {
+        assertEquals(4, s0.getSize());
+        assertEquals(3, s0.getRowSize());
+        assertEquals(3, s0.getColSize());
+        assertEquals(-3.0f, s0.getVal(1, 1), 0f);
+        assertEquals(0.0f, s0.getVal(1, 2), 0f);
+        assertMatrix(d0, s0.toMatrix(), 0f);
+    }
+
+    @Test
+    public void spMVTest() {
+
+        Vector v = new Vector(new float[]{1.0f, 2.0f, 3.0f});
+        IMatrix out = new MockVector(3);
+
+        MatKernel kernel = new MatKernel(s0, v, out) {
+
+            @Override
+            public void run() {
+                matSpMV(0, 1, 2);
+            }
+        };
+
+        // !important, the arg is not rox*col. see javadoc
+        kernel.execute(s0.getRowSize());
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        float[][] expected = new float[][]{
+            {7.0f},
+            {-6.0f},
+            {12.0f}
+        };
+
+        assertMatrix(expected, kernel.getMat(2), 1.0E-6f);
+    }
+
+    @Test
+    public void spMulTest() {
+
+        IMatrix expect = new MockMatrix(3, 3);
+        IMatrix actual = new MockMatrix(3, 3);
+
+        MatKernel kernel = new MatKernel(d0, s0, m1, expect, actual) {
+
+            @Override
+            public void run() {
+                matMul(0, 2, 3);
+                matSpMul(1, 2, 4);
+            }
+        };
+
+        kernel.execute(actual.getSize());
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        assertMatrix(kernel.getMat(3), kernel.getMat(4), 1.0E-6f);
+    }
+
+    @Test
+    public void spAddTest() {
+
+        IMatrix out = new MockMatrix(3, 3);
+
+        MatKernel kernel = new MatKernel(s0, m1, out) {
+
+            @Override
+            public void run() {
+                matSpAdd(0, 1, 2);
+            }
+        };
+
+        // !important, the arg is not rox*col. see javadoc
+        kernel.execute(s0.getRowSize());
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        float[][] expected = new float[][]{
+            {11.0f, 11.0f, 14.0f},
+            {13.0f, 11.0f, 15.0f},
+            {16.0f, 17.0f, 22.0f}
+        };
+
+        assertMatrix(expected, kernel.getMat(2), 1.0E-6f);
+    }
+
+    @Test
+    public void spHmulReLuTest() {
+
+        MatKernel kernel = new MatKernel(s0, m1, s0.copyAll(), s0.copyAll()) {
+
+            @Override
+            public void run() {
+                int pass = getPassId();
+                if (0 == pass) {
+                    matSpHmul(0, 1, 2);
+                } else if (1 == pass) {
+                    matSpReLu(2, 3);
+                }
+            }
+        };
+
+        // !important, the arg is not rox*col. see javadoc
+        kernel.execute(s0.getSize(), 2);
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        float[][] expected = new float[][]{
+            {10.0f, 0.0f, 24.0f},
+            {0.0f, -42.0f, 0.0f},
+            {0.0f, 0.0f, 72.0f}
+        };
+        assertMatrix(expected, kernel.getMat(2), 1.0E-6f);
+
+        expected[1][1] = 0.0f;
+        assertMatrix(expected, kernel.getSparseMat(3), 1.0E-6f);
+    }
+
+    @Test
+    public void spLayoutTest() {
+
+        MatKernel kernel = new MatKernel(s0, s0.copyAll(), m1) {
+
+            @Override
+            public void run() {
+                matReLu(0, 1);
+            }
+        };
+
+        // dense kernel on a sparse slot touches only the stored non-zero elements
+        kernel.execute(m1.getSize());
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        float[][] expected = new float[][]{
+            {1.0f, 0.0f, 2.0f},
+            {0.0f, 0.0f, 0.0f},
+            {0.0f, 0.0f, 4.0f}
+        };
+        assertMatrix(expected, kernel.getSparseMat(1), 0f);
+        assertMatrix(m1, kernel.getMat(2), 0f);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void spSimdTest() {
+        MatKernel kernel = new MatKernel(s0, m1, m1.copyAll()) {
+
+            @Override
+            public void run() {
+            }
+        };
+        MatSimd.matMul(kernel, 0, 1, 2);
+    }
+}
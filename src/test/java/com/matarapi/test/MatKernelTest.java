@@ -3,12 +3,15 @@
  */
 package com.matarapi.test;
 
+import com.matarapi.BufferMatrix;
 import com.matarapi.IMatrix;
 import com.matarapi.MatKernel;
 import com.matarapi.Matrix;
 import com.matarapi.MockMatrix;
 import static com.matarapi.test.MatAssert.assertMatrix;
+import static com.matarapi.test.MatAssert.mul;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
 /**
@@ -55,6 +58,30 @@ public class MatKernelTest {
         assertMatrix(expected, kernel.getMat(2).getData(), 1.0E-6f);
     }
 
+    /**
+     * work items past the end of out must not write into the next matrix.
+     */
+    @Test
+    public void boundsTest() {
+
+        Matrix next = m1.copyAll();
+        MatKernel kernel = new MatKernel(m0, m1, m2, next) {
+
+            @Override
+            public void run() {
+                matAdd(0, 1, 2);
+            }
+        };
+
+        // range is rounded up to 16 work items.
+        kernel.execute(16);
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        assertMatrix(m1, kernel.getMat(3), 0.0f);
+    }
+
     @Test
     public void subTest() {
 
@@ -142,6 +169,42 @@ public class MatKernelTest {
         assertMatrix(expected, mC, 1.0E-6f);
     }
     
+    @Test
+    public void mulTiledTest() {
+        Matrix mA = new Matrix(new float[][]{
+            {1.0f, 2.0f, 3.0f},
+            {4.0f, 5.0f, 6.0f}
+        });
+        Matrix mB = new Matrix(new float[][]{
+            {10.0f, 11.0f},
+            {13.0f, 14.0f},
+            {16.0f, 17.0f}
+        });
+        IMatrix mC = new MockMatrix(2,2);
+
+        MatKernel kernel = new MatKernel(mA, mB, mC) {
+
+            @Override
+            public void run() {
+                matMulTiled(0, 1, 2);
+            }
+        };
+
+        // tile size is not a divisor of matrix size.
+        kernel.setTile(2);
+        kernel.execute(kernel.rangeTiled(2));
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        float[][] expected = new float[][]{
+            {84.0f, 90.0f},
+            {201.0f, 216.0f}
+        };
+
+        assertMatrix(expected, kernel.getMat(2), 1.0E-6f);
+    }
+
     @Test
     public void hmulTest() {
 
@@ -244,4 +307,177 @@ public class MatKernelTest {
         
         assertMatrix(expected, kernel.getMat(2).getData(), 1.0E-6f);
     }
+
+    @Test
+    public void bufferTest() {
+
+        BufferMatrix b0 = new BufferMatrix(3, 3);
+        b0.getBuffer().put(m0.getAry());
+        BufferMatrix b1 = new BufferMatrix(3, 3);
+        b1.getBuffer().put(m1.getAry());
+
+        MatKernel kernel = new MatKernel(b0, b1, m2) {
+
+            @Override
+            public void run() {
+                matAdd(0, 1, 2);
+            }
+        };
+
+        kernel.execute(m2.getSize());
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        float[][] expected = new float[][]{
+            {11.0f, 13.0f, 15.0f},
+            {17.0f, 19.0f, 21.0f},
+            {23.0f, 25.0f, 27.0f}
+        };
+
+        assertMatrix(expected, kernel.getBufferMat(2), 1.0E-6f);
+    }
+
+    @Test
+    public void bufferTooLargeTest() {
+        // 2^16 x 2^14 floats = 2^32 bytes. (0 in int)
+        try {
+            new BufferMatrix(1 << 16, 1 << 14);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("matrix is too large"));
+        }
+    }
+
+    @Test
+    public void reuseTest() {
+
+        MatKernel kernel = new MatKernel(m0, m1, m2) {
+
+            @Override
+            public void run() {
+                matAdd(0, 1, 2);
+            }
+        };
+        kernel.setExplicit(true);
+
+        kernel.execute(m2.getSize());
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        float[][] expected = new float[][]{
+            {11.0f, 13.0f, 15.0f},
+            {17.0f, 19.0f, 21.0f},
+            {23.0f, 25.0f, 27.0f}
+        };
+        assertMatrix(expected, kernel.getMat(2), 1.0E-6f);
+
+        // update an operand in place and execute again.
+        kernel.setMat(0, m1);
+        kernel.execute(m2.getSize());
+
+        expected = new float[][]{
+            {20.0f, 22.0f, 24.0f},
+            {26.0f, 28.0f, 30.0f},
+            {32.0f, 34.0f, 36.0f}
+        };
+        Matrix out = new Matrix(3, 3);
+        assertMatrix(expected, kernel.getMatInto(2, out), 1.0E-6f);
+        assertMatrix(m1, kernel.getMat(0), 1.0E-6f);
+    }
+
+    @Test
+    public void mulBatchedTest() {
+
+        final int batch = 100;
+        Matrix a = new Matrix(batch * 2, 3);
+        Matrix b = new Matrix(batch * 3, 2);
+        for (int cnt = 0; cnt < a.getSize(); cnt++) {
+            a.getAry()[cnt] = cnt % 7;
+            b.getAry()[cnt] = cnt % 5 - 2;
+        }
+        Matrix w = new Matrix(new float[][]{
+            {1.0f, 2.0f},
+            {3.0f, 4.0f},
+            {5.0f, 6.0f}
+        });
+
+        MatKernel kernel = new MatKernel(a, b, w, new MockMatrix(batch * 2, 2), new MockMatrix(batch * 2, 2)) {
+
+            @Override
+            public void run() {
+                if (0 == getPassId()) {
+                    matMulBatched(0, 1, 3, batch);
+                } else {
+                    // shared in2
+                    matMulBatched(0, 2, 4, batch);
+                }
+            }
+        };
+
+        kernel.execute(kernel.rangeBatched(3, batch), 2);
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        for (int cnt = 0; cnt < batch; cnt++) {
+            Matrix ai = kernel.getBatchMat(0, batch, cnt);
+            Matrix bi = kernel.getBatchMat(1, batch, cnt);
+            assertMatrix(mul(ai, bi), kernel.getBatchMat(3, batch, cnt), 1.0E-6f);
+            assertMatrix(mul(ai, w), kernel.getBatchMat(4, batch, cnt), 1.0E-6f);
+        }
+    }
+
+    @Test
+    public void gemmTest() {
+
+        Matrix a = new Matrix(new float[][]{
+            {1.0f, 2.0f},
+            {3.0f, 4.0f},
+            {5.0f, 6.0f}
+        });
+        Matrix b = new Matrix(new float[][]{
+            {1.0f, 0.0f, -1.0f},
+            {2.0f, 1.0f, 0.0f}
+        });
+        Matrix acc = new Matrix(new float[][]{
+            {1.0f, 1.0f},
+            {1.0f, 1.0f}
+        });
+
+        MatKernel kernel = new MatKernel(a, b, acc, new MockMatrix(3, 3)) {
+
+            @Override
+            public void run() {
+                if (0 == getPassId()) {
+                    // acc = 2 * a^T X b^T + acc
+                    matGemm(0, true, 1, true, 2.0f, 1.0f, 2);
+                } else {
+                    // out = a X b
+                    matGemm(0, false, 1, false, 1.0f, 0.0f, 3);
+                }
+            }
+        };
+
+        kernel.execute(9, 2);
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        Matrix at = new Matrix(2, 3);
+        Matrix bt = new Matrix(3, 2);
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 2; c++) {
+                at.setVal(c, r, a.getVal(r, c));
+                bt.setVal(r, c, b.getVal(c, r));
+            }
+        }
+        Matrix expected = mul(at, bt);
+        for (int cnt = 0; cnt < expected.getSize(); cnt++) {
+            expected.getAry()[cnt] = expected.getAry()[cnt] * 2.0f + 1.0f;
+        }
+        assertMatrix(expected, kernel.getMat(2), 1.0E-6f);
+        assertMatrix(mul(a, b), kernel.getMat(3), 1.0E-6f);
+    }
 }
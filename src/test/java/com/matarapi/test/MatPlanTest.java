@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.MatExpr;
+import com.matarapi.MatPlan;
+import com.matarapi.Matrix;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import static com.matarapi.test.MatAssert.mul;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Expression plan test.
+ *
+ * @author atsushi
+ */
+public class MatPlanTest {
+
+    Matrix m0 = new Matrix(new float[][]{
+        {1.0f, 2.0f, 3.0f},
+        {4.0f, 5.0f, 6.0f},
+        {7.0f, 8.0f, 9.0f}
+    });
+    Matrix m1 = new Matrix(new float[][]{
+        {1.0f, 0.0f, 0.0f},
+        {0.0f, -1.0f, 0.0f},
+        {0.0f, 0.0f, 1.0f}
+    });
+    Matrix bias = new Matrix(new float[][]{
+        {1.0f, 1.0f, 1.0f},
+        {-1.0f, -1.0f, -1.0f},
+        {0.0f, 0.0f, -10.0f}
+    });
+
+    @Test
+    public void layerTest() {
+        MatExpr x = MatExpr.input(3, 3);
+        MatExpr w = MatExpr.input(3, 3);
+        MatExpr b = MatExpr.input(3, 3);
+        MatExpr y = x.mul(w).add(b).reLu();
+
+        MatPlan plan = MatPlan.compile(y);
+        // GEMM epilogue is fused.
+        assertEquals(1, plan.getStepSize());
+
+        plan.set(x, m0).set(w, m1).set(b, bias).run();
+
+        float[][] expected = new float[][]{
+            {2.0f, 0.0f, 4.0f},
+            {3.0f, 0.0f, 5.0f},
+            {7.0f, 0.0f, 0.0f}
+        };
+        assertMatrix(expected, plan.get(y), 1.0E-6f);
+
+        // re-run with other inputs.
+        plan.set(b, new Matrix(3, 3)).run();
+        expected = new float[][]{
+            {1.0f, 0.0f, 3.0f},
+            {4.0f, 0.0f, 6.0f},
+            {7.0f, 0.0f, 9.0f}
+        };
+        assertMatrix(expected, plan.get(y), 1.0E-6f);
+    }
+
+    @Test
+    public void dagTest() {
+        MatExpr a = MatExpr.input(3, 3);
+        MatExpr i = MatExpr.input(3, 3);
+        // shared sub expression and transpose
+        MatExpr p = a.mul(i);
+        MatExpr y1 = p.add(p.transpose());
+        MatExpr y2 = p.sub(a).hmul(y1);
+
+        MatPlan plan = MatPlan.compile(y1, y2);
+        plan.set(a, m0).set(i, new Matrix(3, 3).toE()).run();
+
+        float[][] expected = new float[][]{
+            {2.0f, 6.0f, 10.0f},
+            {6.0f, 10.0f, 14.0f},
+            {10.0f, 14.0f, 18.0f}
+        };
+        assertMatrix(expected, plan.get(y1), 1.0E-6f);
+        assertMatrix(new Matrix(3, 3), plan.get(y2), 1.0E-6f);
+        assertMatrix(m0, plan.get(a), 1.0E-6f);
+    }
+
+    @Test
+    public void repeatedOperandTest() {
+        MatExpr x = MatExpr.input(3, 3);
+        MatExpr w = MatExpr.input(3, 3);
+        // t is read twice by one step. its slot must be released only once,
+        // or v and q share a slot.
+        MatExpr t = x.mul(w).add(x);
+        MatExpr u = t.hmul(t);
+        MatExpr v = u.mul(w);
+        MatExpr q = v.mul(w).mul(w);
+        MatExpr y = q.add(v).add(q);
+
+        MatPlan plan = MatPlan.compile(y);
+        plan.set(x, m0).set(w, bias).run();
+
+        Matrix mt = mul(m0, bias);
+        for (int cnt = 0; cnt < mt.getSize(); cnt++) {
+            mt.getAry()[cnt] += m0.getAry()[cnt];
+            mt.getAry()[cnt] *= mt.getAry()[cnt];
+        }
+        Matrix mv = mul(mt, bias);
+        Matrix expected = mul(mul(mv, bias), bias);
+        for (int cnt = 0; cnt < expected.getSize(); cnt++) {
+            expected.getAry()[cnt] = expected.getAry()[cnt] * 2.0f + mv.getAry()[cnt];
+        }
+        assertMatrix(expected, plan.get(y), 1.0E-6f);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.MatKernel;
+import com.matarapi.MatQR;
+import com.matarapi.Matrix;
+import com.matarapi.MockMatrix;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import static com.matarapi.test.MatAssert.random;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * QR decomposition test.
+ *
+ * @author atsushi
+ */
+public class MatQRTest {
+
+    /**
+     * R^T R (= A^T A), independent of the signs of R.
+     */
+    private static Matrix gram(final Matrix r) {
+        int n = r.getColSize();
+        Matrix out = new Matrix(n, n);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double sum = 0.0;
+                for (int k = 0; k < r.getRowSize(); k++) {
+                    sum += (double) r.getVal(k, i) * r.getVal(k, j);
+                }
+                out.setVal(i, j, (float) sum);
+            }
+        }
+        return out;
+    }
+
+    private static Matrix upper(final Matrix m, final int n) {
+        Matrix r = new Matrix(n, n);
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                r.setVal(i, j, m.getVal(i, j));
+            }
+        }
+        return r;
+    }
+
+    @Test
+    public void rTest() {
+        // more cols than the block size, tall enough for TSQR
+        Matrix a = random(400, 40, 1);
+        Matrix r = MatQR.r(a);
+
+        assertMatrix(gram(a), gram(r), 1.0E-2f);
+        for (int i = 1; i < 40; i++) {
+            for (int j = 0; j < i; j++) {
+                assertTrue(r.getVal(i, j) == 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void leastSquaresTest() {
+        final int m = 3000;
+        Matrix a = random(m, 8, 2);
+        Matrix x = random(8, 2, 3);
+        Matrix b = new Matrix(m, 2);
+        for (int r = 0; r < m; r++) {
+            for (int c = 0; c < 2; c++) {
+                float sum = 0.0f;
+                for (int k = 0; k < 8; k++) {
+                    sum += a.getVal(r, k) * x.getVal(k, c);
+                }
+                b.setVal(r, c, sum);
+            }
+        }
+
+        assertMatrix(x, MatQR.leastSquares(a, b), 1.0E-4f);
+    }
+
+    @Test
+    public void kernelTest() {
+        final int m = 70;
+        final int n = 6;
+        Matrix a = random(m, n, 4);
+
+        MatKernel kernel = new MatKernel(a, new MockMatrix(1, n), new MockMatrix(1, n)) {
+
+            @Override
+            public void run() {
+                matQR(0, 1, 2, getPassId());
+            }
+        };
+        kernel.setTile(4);
+        kernel.execute(kernel.rangeQR(0), kernel.passesQR(0));
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        Matrix r = upper(kernel.getMat(0), n);
+        assertMatrix(gram(a), gram(r), 1.0E-3f);
+    }
+}
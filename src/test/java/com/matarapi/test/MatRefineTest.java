@@ -0,0 +1,227 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.IMatrix;
+import com.matarapi.MatFactorCache;
+import com.matarapi.MatKernel;
+import com.matarapi.MatRefine;
+import com.matarapi.MatSolver;
+import com.matarapi.Matrix;
+import com.matarapi.MockMatrix;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import static com.matarapi.test.MatAssert.random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Mixed-precision iterative refinement test.
+ *
+ * @author atsushi
+ */
+public class MatRefineTest {
+
+    /**
+     * Hilbert matrix (rounded to float).
+     */
+    private static Matrix hilbert(final int size) {
+        Matrix h = new Matrix(size, size);
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                h.setVal(r, c, 1.0f / (r + c + 1));
+            }
+        }
+        return h;
+    }
+
+    /**
+     * solve A x = b in double. (Gaussian elimination with partial pivoting)
+     */
+    private static double[] solveDouble(final Matrix a, final double[] b) {
+        int n = b.length;
+        double[][] m = new double[n][n + 1];
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                m[r][c] = a.getVal(r, c);
+            }
+            m[r][n] = b[r];
+        }
+        for (int k = 0; k < n; k++) {
+            int p = k;
+            for (int r = k + 1; r < n; r++) {
+                if (Math.abs(m[r][k]) > Math.abs(m[p][k])) {
+                    p = r;
+                }
+            }
+            double[] t = m[k];
+            m[k] = m[p];
+            m[p] = t;
+            for (int r = k + 1; r < n; r++) {
+                double f = m[r][k] / m[k][k];
+                for (int c = k; c <= n; c++) {
+                    m[r][c] -= f * m[k][c];
+                }
+            }
+        }
+        double[] x = new double[n];
+        for (int r = n - 1; r >= 0; r--) {
+            double sum = m[r][n];
+            for (int c = r + 1; c < n; c++) {
+                sum -= m[r][c] * x[c];
+            }
+            x[r] = sum / m[r][r];
+        }
+        return x;
+    }
+
+    private static double error(final double[] expected, final double[] actual) {
+        double e = 0.0;
+        double x = 0.0;
+        for (int cnt = 0; cnt < expected.length; cnt++) {
+            e = Math.max(e, Math.abs(expected[cnt] - actual[cnt]));
+            x = Math.max(x, Math.abs(expected[cnt]));
+        }
+        return e / x;
+    }
+
+    @Test
+    public void illConditionedTest() throws Exception {
+        // cond(A) ~ 1.5e7 (close to 1 / u(float))
+        final int size = 6;
+        Matrix a = hilbert(size);
+        double[] b = new double[size];
+        for (int cnt = 0; cnt < size; cnt++) {
+            b[cnt] = 1.0;
+        }
+        double[] expected = solveDouble(a, b);
+
+        // float only
+        Matrix bf = new Matrix(size, 1);
+        for (int cnt = 0; cnt < size; cnt++) {
+            bf.setVal(cnt, 0, 1.0f);
+        }
+        Matrix xf = MatSolver.solve(a, bf);
+        double[] plain = new double[size];
+        for (int cnt = 0; cnt < size; cnt++) {
+            plain[cnt] = xf.getVal(cnt, 0);
+        }
+
+        MatRefine ref = new MatRefine(a);
+        double[] x = ref.solve(b);
+
+        assertTrue(ref.isConverged());
+        assertTrue(ref.getIterations() > 0);
+        assertTrue(error(expected, x) < 1.0E-9);
+        assertTrue(error(expected, plain) > 1.0E-4);
+    }
+
+    @Test
+    public void manyRhsTest() throws Exception {
+        final int size = 80;
+        Matrix a = random(size, size, 1);
+        Matrix b = random(size, 3, 2);
+
+        MatFactorCache cache = new MatFactorCache(1L << 20);
+        MatRefine ref = new MatRefine(a, cache.lu(a));
+        double[] db = new double[b.getSize()];
+        for (int cnt = 0; cnt < db.length; cnt++) {
+            db[cnt] = b.getAry()[cnt];
+        }
+        double[] x = ref.solve(db);
+        assertTrue(ref.isConverged());
+
+        for (int c = 0; c < 3; c++) {
+            double[] col = new double[size];
+            double[] xc = new double[size];
+            for (int r = 0; r < size; r++) {
+                col[r] = db[r * 3 + c];
+                xc[r] = x[r * 3 + c];
+            }
+            assertTrue(error(solveDouble(a, col), xc) < 1.0E-10);
+        }
+
+        // float version
+        Matrix xf = ref.solve(b);
+        for (int cnt = 0; cnt < x.length; cnt++) {
+            assertEquals((float) x[cnt], xf.getAry()[cnt], 0.0f);
+        }
+    }
+
+    @Test
+    public void kernelLUTest() {
+        final int size = 40;
+        Matrix a = random(size, size, 3);
+        Matrix b = random(size, 1, 4);
+
+        IMatrix piv = new MockMatrix(1, size);
+        MatKernel kernel = new MatKernel(a, piv) {
+
+            @Override
+            public void run() {
+                matLU(0, 1, 8, getPassId());
+            }
+        };
+        kernel.setTile(4);
+        kernel.execute(kernel.rangeLU(0), kernel.passesLU(0, 8));
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        Matrix p = kernel.getMat(1);
+        int[] order = new int[size];
+        for (int cnt = 0; cnt < size; cnt++) {
+            order[cnt] = (int) p.getVal(0, cnt);
+        }
+        MatRefine ref = new MatRefine(a, kernel.getMat(0), order);
+        Matrix x = ref.solve(b);
+        assertTrue(ref.isConverged());
+
+        double[] db = new double[size];
+        for (int cnt = 0; cnt < size; cnt++) {
+            db[cnt] = b.getVal(cnt, 0);
+        }
+        double[] expected = solveDouble(a, db);
+        Matrix ex = new Matrix(size, 1);
+        for (int cnt = 0; cnt < size; cnt++) {
+            ex.setVal(cnt, 0, (float) expected[cnt]);
+        }
+        assertMatrix(ex, x, 1.0E-6f);
+    }
+
+    @Test
+    public void divergeTest() throws Exception {
+        // cond(A) ~ 1e17, too large for float LU
+        Matrix a = hilbert(12);
+        MatRefine ref = new MatRefine(a);
+        double[] b = new double[12];
+        for (int cnt = 0; cnt < b.length; cnt++) {
+            b[cnt] = 1.0;
+        }
+        ref.setMaxIterations(0);
+        double r0 = residual(a, ref.solve(b), b);
+
+        ref.setMaxIterations(20);
+        double[] x = ref.solve(b);
+        assertFalse(ref.isConverged());
+        // the rejected correction is not applied.
+        assertTrue(residual(a, x, b) <= r0);
+    }
+
+    /**
+     * max|b - A x|
+     */
+    private static double residual(final Matrix a, final double[] x, final double[] b) {
+        double max = 0.0;
+        for (int r = 0; r < b.length; r++) {
+            double sum = b[r];
+            for (int c = 0; c < b.length; c++) {
+                sum -= a.getVal(r, c) * x[c];
+            }
+            max = Math.max(max, Math.abs(sum));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.IMatrix;
+import com.matarapi.MatKernel;
+import com.matarapi.MatSimd;
+import com.matarapi.Matrix;
+import com.matarapi.MockMatrix;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import org.junit.Test;
+
+/**
+ * Host SIMD operation test.
+ *
+ * @author atsushi
+ */
+public class MatSimdTest {
+
+    Matrix m0 = new Matrix(new float[][]{
+        {1.0f, -2.0f, 3.0f},
+        {4.0f, 5.0f, -6.0f}
+    });
+    Matrix m1 = new Matrix(new float[][]{
+        {10.0f, 11.0f, 12.0f},
+        {13.0f, 14.0f, 15.0f}
+    });
+    Matrix m2 = new Matrix(new float[][]{
+        {10.0f, 11.0f},
+        {13.0f, 14.0f},
+        {16.0f, 17.0f}
+    });
+
+    private MatKernel kernel(IMatrix ...data) {
+        return new MatKernel(data) {
+
+            @Override
+            public void run() {
+            }
+        };
+    }
+
+    @Test
+    public void elementwiseTest() {
+        IMatrix out = new MockMatrix(2, 3);
+        MatKernel kernel = kernel(m0, m1, out);
+
+        MatSimd.matAdd(kernel, 0, 1, 2);
+        assertMatrix(new float[][]{
+            {11.0f, 9.0f, 15.0f},
+            {17.0f, 19.0f, 9.0f}
+        }, kernel.getMat(2), 1.0E-6f);
+
+        MatSimd.matSub(kernel, 0, 1, 2);
+        assertMatrix(new float[][]{
+            {-9.0f, -13.0f, -9.0f},
+            {-9.0f, -9.0f, -21.0f}
+        }, kernel.getMat(2), 1.0E-6f);
+
+        MatSimd.matHmul(kernel, 0, 1, 2);
+        assertMatrix(new float[][]{
+            {10.0f, -22.0f, 36.0f},
+            {52.0f, 70.0f, -90.0f}
+        }, kernel.getMat(2), 1.0E-6f);
+
+        MatSimd.matReLu(kernel, 0, 2);
+        assertMatrix(new float[][]{
+            {1.0f, 0.0f, 3.0f},
+            {4.0f, 5.0f, 0.0f}
+        }, kernel.getMat(2), 1.0E-6f);
+
+        MatSimd.matdReLu(kernel, 0, 2);
+        assertMatrix(new float[][]{
+            {1.0f, 0.0f, 1.0f},
+            {1.0f, 1.0f, 0.0f}
+        }, kernel.getMat(2), 1.0E-6f);
+    }
+
+    @Test
+    public void mulTest() {
+        IMatrix out = new MockMatrix(2, 2);
+        MatKernel kernel = kernel(m0, m2, out);
+
+        MatSimd.matMul(kernel, 0, 1, 2);
+        assertMatrix(new float[][]{
+            {32.0f, 34.0f},
+            {9.0f, 12.0f}
+        }, kernel.getMat(2), 1.0E-6f);
+    }
+
+    @Test
+    public void bigMulTest() {
+        final int size = 300;
+        Matrix a = new Matrix(size, size);
+        Matrix b = new Matrix(size, size).toE();
+        for (int cnt = 0; cnt < a.getSize(); cnt++) {
+            a.getAry()[cnt] = cnt % 11;
+        }
+        MatKernel kernel = kernel(a, b, new MockMatrix(size, size));
+
+        MatSimd.matMul(kernel, 0, 1, 2);
+        assertMatrix(a, kernel.getMat(2), 1.0E-6f);
+    }
+}
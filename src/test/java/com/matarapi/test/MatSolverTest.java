@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.MatKernel;
+import com.matarapi.MatSolver;
+import com.matarapi.Matrix;
+import com.matarapi.MockMatrix;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import static com.matarapi.test.MatAssert.random;
+import static com.matarapi.test.MatAssert.mul;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Linear system solver test.
+ *
+ * @author atsushi
+ */
+public class MatSolverTest {
+
+    @Test
+    public void solveTest() throws Exception {
+        Matrix a = new Matrix(new float[][]{
+            {2.0f, 5.0f, 7.0f, 8.0f},
+            {4.0f, 13.0f, 20.0f, 25.0f},
+            {8.0f, 29.0f, 50.0f, 71.0f},
+            {10.0f, 34.0f, 78.0f, 98.0f},
+        });
+        Matrix x = new Matrix(new float[][]{
+            {1.0f, 0.0f},
+            {-1.0f, 2.0f},
+            {0.5f, 1.0f},
+            {2.0f, -3.0f},
+        });
+
+        assertMatrix(x, MatSolver.solve(a, mul(a, x)), 1.0E-4f);
+    }
+
+    @Test
+    public void manyRhsTest() throws Exception {
+        final int size = 80;
+        Matrix a = random(size, size, 1);
+        for (int cnt = 0; cnt < size; cnt++) {
+            // diagonally dominant
+            a.setVal(cnt, cnt, a.getVal(cnt, cnt) + size);
+        }
+        Matrix x = random(size, 100, 2);
+        Matrix b = mul(a, x);
+
+        Matrix lu = a.copyAll();
+        int[] o = lu.toLU();
+        assertMatrix(x, MatSolver.solveLU(lu, o, b), 1.0E-4f);
+    }
+
+    @Test
+    public void kernelSolveTest() throws Exception {
+        final int size = 20;
+        Matrix a = random(size, size, 3);
+        Matrix x = random(size, 7, 4);
+        Matrix b = mul(a, x);
+
+        MatKernel kernel = new MatKernel(a, new MockMatrix(1, size), b, new MockMatrix(size, 7)) {
+            final int luPasses = passesLU(0, 8);
+
+            @Override
+            public void run() {
+                int pass = getPassId();
+                if (pass < luPasses) {
+                    matLU(0, 1, 8, pass);
+                } else {
+                    matSolveLU(0, 1, 2, 3);
+                }
+            }
+        };
+        kernel.setTile(4);
+        kernel.execute(kernel.rangeLU(0), kernel.passesLU(0, 8) + 1);
+
+        // running on OpenCL?
+        assertTrue(kernel.isRunningCL());
+
+        assertMatrix(x, kernel.getMat(3), 1.0E-3f);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.IMatrix;
+import com.matarapi.MatKernel;
+import com.matarapi.MatSimd;
+import com.matarapi.MatStrassen;
+import com.matarapi.Matrix;
+import com.matarapi.MockMatrix;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import static com.matarapi.test.MatAssert.random;
+import static com.matarapi.test.MatAssert.mul;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Strassen-Winograd multiple test.
+ *
+ * @author atsushi
+ */
+public class MatStrassenTest {
+
+    private MatKernel kernel(IMatrix ...data) {
+        return new MatKernel(data) {
+
+            @Override
+            public void run() {
+            }
+        };
+    }
+
+    @Test
+    public void squareTest() {
+        final int size = 256;
+        Matrix a = random(size, size, 1);
+        Matrix b = random(size, size, 2);
+
+        MatStrassen st = new MatStrassen(size, size, size, 32);
+        assertEquals(3, st.getLevels());
+
+        assertMatrix(mul(a, b), st.mul(a, b), 1.0E-3f);
+    }
+
+    @Test
+    public void paddedTest() {
+        // not a multiple of 2^levels
+        Matrix a = random(150, 131, 3);
+        Matrix b = random(131, 141, 4);
+
+        MatStrassen st = new MatStrassen(150, 131, 141, 16);
+        assertEquals(3, st.getLevels());
+
+        Matrix expected = mul(a, b);
+        Matrix out = new Matrix(150, 141);
+        st.mul(a, b, out);
+        assertMatrix(expected, out, 1.0E-3f);
+
+        // the workspace is reused.
+        Matrix c = random(150, 131, 5);
+        assertMatrix(mul(c, b), st.mul(c, b), 1.0E-3f);
+    }
+
+    @Test
+    public void smallTest() {
+        // below the cutoff : regular multiple
+        Matrix a = new Matrix(new float[][]{
+            {1.0f, -2.0f, 3.0f},
+            {4.0f, 5.0f, -6.0f}
+        });
+        Matrix b = new Matrix(new float[][]{
+            {10.0f, 11.0f},
+            {13.0f, 14.0f},
+            {16.0f, 17.0f}
+        });
+        assertMatrix(new float[][]{
+            {32.0f, 34.0f},
+            {9.0f, 12.0f}
+        }, MatStrassen.multiply(a, b), 1.0E-6f);
+    }
+
+    @Test
+    public void kernelTest() {
+        final int size = 200;
+        Matrix a = random(size, size, 6);
+        Matrix b = random(size, size, 7);
+        MatKernel kernel = kernel(a, b, new MockMatrix(size, size), new MockMatrix(size, size));
+
+        new MatStrassen(size, size, size, 25).matMul(kernel, 0, 1, 2);
+        MatSimd.matMul(kernel, 0, 1, 3);
+        assertMatrix(kernel.getMat(3), kernel.getMat(2), 1.0E-3f);
+    }
+
+    @Test
+    public void kernelLeavesTest() {
+        Matrix a = random(150, 131, 8);
+        Matrix b = random(131, 141, 9);
+
+        MatStrassen st = new MatStrassen(150, 131, 141, 16);
+        st.setKernelLeaves(true);
+        assertTrue(st.isKernelLeaves());
+        assertMatrix(mul(a, b), st.mul(a, b), 1.0E-3f);
+
+        // the leaf kernel is reused.
+        Matrix c = random(150, 131, 10);
+        assertMatrix(mul(c, b), st.mul(c, b), 1.0E-3f);
+
+        st.setKernelLeaves(false);
+        assertFalse(st.isKernelLeaves());
+        assertMatrix(mul(a, b), st.mul(a, b), 1.0E-3f);
+    }
+
+    @Test
+    public void tuneTest() {
+        int cutoff = MatStrassen.tuneCutoff(128);
+        assertTrue(cutoff == 32 || cutoff == 64 || cutoff == 128);
+    }
+}
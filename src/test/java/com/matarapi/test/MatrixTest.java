@@ -8,6 +8,8 @@ import com.matarapi.MatKernel;
 import com.matarapi.Matrix;
 import com.matarapi.MockMatrix;
 import static com.matarapi.test.MatAssert.assertMatrix;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 import static com.matarapi.test.MatAssert.assertMatrixInvert;
 
@@ -105,4 +107,65 @@ public class MatrixTest {
         // We don't use GPGPU for Rocket Science.
         assertMatrixInvert(original, invert, 1.0E-5f);
     }
+
+    @Test
+    public void testLUBlocked() throws Exception {
+        // bigger than the block size of toLU()
+        final int size = 150;
+        Matrix m0 = new Matrix(size, size);
+        java.util.Random rnd = new java.util.Random(3);
+        for (int cnt = 0; cnt < m0.getSize(); cnt++) {
+            m0.getAry()[cnt] = rnd.nextFloat() * 2.0f - 1.0f;
+        }
+        Matrix original = m0.copyAll();
+
+        final int[] order = m0.toLU();
+
+        // L U => mul, rows in pivoting order
+        Matrix mul = new Matrix(size, size);
+        Matrix expected = new Matrix(size, size);
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                float sum = 0.0f;
+                for (int k = 0; k <= Math.min(r, c); k++) {
+                    float u = k == c ? 1.0f : m0.getVal(k, c);
+                    sum += m0.getVal(r, k) * u;
+                }
+                mul.setVal(r, c, sum);
+                expected.setVal(r, c, original.getVal(order[r], c));
+            }
+        }
+        assertMatrix(expected, mul, 1.0E-4f);
+    }
+
+    @Test
+    public void testFlatStorage() {
+        Matrix m0 = new Matrix(new float[][]{
+            {1.0f, 2.0f, 3.0f},
+            {4.0f, 5.0f, 6.0f}
+        });
+
+        // row-major, stride = col size
+        assertEquals(3, m0.getStride());
+        assertArrayEquals(new float[]{1.0f, 2.0f, 3.0f, 4.0f, 5.0f, 6.0f}, m0.getAry(), 0f);
+
+        // accept -> constructor round trip
+        float[] ary = new float[8];
+        int p = m0.accept(ary, 1);
+        assertEquals(7, p);
+        assertMatrix(m0, new Matrix(ary, 1, 2, 3), 0f);
+
+        // getData is a copy
+        m0.getData()[0][0] = 100.0f;
+        assertEquals(1.0f, m0.getVal(0, 0), 0f);
+
+        assertMatrix(new float[][]{
+            {1.0f, 0.0f, 0.0f},
+            {4.0f, 5.0f, 0.0f}
+        }, m0.copyL(), 0f);
+        assertMatrix(new float[][]{
+            {1.0f, 2.0f, 3.0f},
+            {0.0f, 1.0f, 6.0f}
+        }, m0.copyU(), 0f);
+    }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 HONDOH Atsushi.
+ */
+package com.matarapi.test;
+
+import com.matarapi.IMatrix;
+import com.matarapi.MatKernel;
+import com.matarapi.Matrix;
+import com.matarapi.MatrixView;
+import com.matarapi.MockMatrix;
+import com.matarapi.PermutedView;
+import static com.matarapi.test.MatAssert.assertMatrix;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Matrix view test.
+ *
+ * @author atsushi
+ */
+public class MatrixViewTest {
+
+    Matrix m0 = new Matrix(new float[][]{
+        {1.0f, 2.0f, 3.0f},
+        {4.0f, 5.0f, 6.0f},
+        {7.0f, 8.0f, 9.0f}
+    });
+
+    @Test
+    public void subTest() {
+        MatrixView sub = m0.view().sub(1, 1, 2, 2);
+
+        assertMatrix(new float[][]{
+            {5.0f, 6.0f},
+            {8.0f, 9.0f}
+        }, sub, 0f);
+
+        // no copy
+        sub.setVal(0, 0, 50.0f);
+        assertEquals(50.0f, m0.getVal(1, 1), 0f);
+    }
+
+    @Test
+    public void transposeTest() {
+        MatrixView t = m0.view().sub(0, 0, 2, 3).transpose();
+
+        assertMatrix(new float[][]{
+            {1.0f, 4.0f},
+            {2.0f, 5.0f},
+            {3.0f, 6.0f}
+        }, t, 0f);
+        assertMatrix(t, t.toMatrix(), 0f);
+    }
+
+    @Test
+    public void sortTest() {
+        final int[] order = new int[]{2, 0, 1};
+
+        assertMatrix(new float[][]{
+            {4.0f, 5.0f, 6.0f},
+            {7.0f, 8.0f, 9.0f},
+            {1.0f, 2.0f, 3.0f}
+        }, PermutedView.sortRow(m0, order), 0f);
+
+        assertMatrix(new float[][]{
+            {2.0f, 3.0f, 1.0f},
+            {5.0f, 6.0f, 4.0f},
+            {8.0f, 9.0f, 7.0f}
+        }, PermutedView.sortCol(m0, order), 0f);
+    }
+
+    @Test
+    public void kernelViewTest() {
+        IMatrix m1 = new MockMatrix(3, 3);
+
+        // a view can be an input of kernel.
+        MatKernel kernel = new MatKernel(m0.view().transpose(), m1) {
+
+            @Override
+            public void run() {
+                matTranspose(0, 1);
+            }
+        };
+        kernel.execute(m1.getSize());
+
+        assertMatrix(m0, kernel.getView(1), 0f);
+
+        Matrix target = new Matrix(3, 3);
+        assertSame(target, kernel.getMatInto(1, target));
+        assertMatrix(m0, target, 0f);
+    }
+}